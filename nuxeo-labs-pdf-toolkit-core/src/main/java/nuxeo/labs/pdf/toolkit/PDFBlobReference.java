@@ -0,0 +1,171 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import org.apache.commons.lang3.StringUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CoreInstance;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.blob.BlobInfo;
+import org.nuxeo.ecm.core.blob.BlobManager;
+import org.nuxeo.ecm.core.blob.BlobProvider;
+import org.nuxeo.ecm.core.blob.ManagedBlob;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * How a background work (possibly running on another node) gets the PDF back, without copying it when it is not
+ * needed:
+ * <ul>
+ * <li>The PDF of a document: the work reads it from the document (repository, id, xpath)</li>
+ * <li>A managed blob: the work reads it from its blob provider</li>
+ * <li>Else (a blob built in memory, an upload, ...): a copy is kept in the cache, see
+ * {@link PDFToolkitCache#putSource(String, Blob)} and {@link #keepCopyIfNeeded(Blob)}</li>
+ * </ul>
+ * In all cases, {@link #getBlob()} returns null if the PDF changed (its document key is not the same) or is gone.
+ */
+public class PDFBlobReference implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    protected final String documentKey;
+
+    protected String repositoryName;
+
+    protected String docId;
+
+    protected String xpath;
+
+    protected String providerId;
+
+    protected String blobKey;
+
+    protected String mimeType;
+
+    protected String filename;
+
+    protected long length = -1;
+
+    protected PDFBlobReference(String documentKey) {
+        this.documentKey = documentKey;
+    }
+
+    /**
+     * @param doc can be null
+     * @param xpath the field of doc holding the PDF
+     * @param pdfBlob the PDF
+     * @return the reference
+     */
+    public static PDFBlobReference of(DocumentModel doc, String xpath, Blob pdfBlob) {
+
+        PDFBlobReference ref = of(pdfBlob);
+        // A document not saved yet can't be read by the work
+        if (doc != null && StringUtils.isNotBlank(doc.getId()) && StringUtils.isNotBlank(xpath)) {
+            ref.repositoryName = doc.getRepositoryName();
+            ref.docId = doc.getId();
+            ref.xpath = xpath;
+        }
+        return ref;
+    }
+
+    public static PDFBlobReference of(Blob pdfBlob) {
+
+        PDFBlobReference ref = new PDFBlobReference(PDFToolkitCache.getDocumentKey(pdfBlob));
+        if (pdfBlob instanceof ManagedBlob && StringUtils.isNotBlank(((ManagedBlob) pdfBlob).getKey())) {
+            ManagedBlob managed = (ManagedBlob) pdfBlob;
+            ref.providerId = managed.getProviderId();
+            ref.blobKey = managed.getKey();
+            ref.mimeType = managed.getMimeType();
+            ref.filename = managed.getFilename();
+            ref.length = managed.getLength();
+        }
+        return ref;
+    }
+
+    public String getDocumentKey() {
+        return documentKey;
+    }
+
+    /**
+     * @return true if the PDF can be read only from the copy kept in the cache
+     */
+    public boolean isCopy() {
+        return docId == null && blobKey == null;
+    }
+
+    /**
+     * If the PDF can't be read back from a document or a blob provider, keep a copy of it in the cache.
+     *
+     * @param pdfBlob the PDF of this reference
+     */
+    public void keepCopyIfNeeded(Blob pdfBlob) {
+
+        if (isCopy()) {
+            new PDFToolkitCache().putSource(documentKey, pdfBlob);
+        }
+    }
+
+    /**
+     * Must be called in a transaction when the PDF is read from a document.
+     *
+     * @return the PDF, null if it changed, was removed or expired from the cache
+     */
+    public Blob getBlob() {
+
+        Blob blob;
+        if (docId != null) {
+            CoreSession session = CoreInstance.getCoreSessionSystem(repositoryName);
+            IdRef ref = new IdRef(docId);
+            if (!session.exists(ref)) {
+                return null;
+            }
+            DocumentModel doc = session.getDocument(ref);
+            blob = (Blob) doc.getPropertyValue(xpath);
+        } else if (blobKey != null) {
+            BlobProvider blobProvider = Framework.getService(BlobManager.class).getBlobProvider(providerId);
+            if (blobProvider == null) {
+                return null;
+            }
+            BlobInfo info = new BlobInfo();
+            info.key = blobKey;
+            info.mimeType = mimeType;
+            info.filename = filename;
+            info.length = length;
+            try {
+                blob = blobProvider.readBlob(info);
+            } catch (IOException e) {
+                throw new NuxeoException("Failed to read the PDF " + blobKey, e);
+            }
+        } else {
+            return new PDFToolkitCache().getSource(documentKey);
+        }
+
+        // Changed since the work was scheduled: the new PDF has its own renders
+        if (blob == null || documentKey == null || !documentKey.equals(PDFToolkitCache.getDocumentKey(blob))) {
+            return null;
+        }
+        return blob;
+    }
+
+}
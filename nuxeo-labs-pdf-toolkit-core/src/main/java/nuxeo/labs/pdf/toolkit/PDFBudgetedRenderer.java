@@ -0,0 +1,76 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.rendering.PageDrawer;
+import org.apache.pdfbox.rendering.PageDrawerParameters;
+
+/**
+ * A PDFRenderer that stops rendering a page once its deadline is passed: the deadline is checked before each operator
+ * of the content stream (cooperative cancellation), and a {@link PDFRenderTimeoutException} is thrown.
+ * <br>
+ * A single operator (a huge shading, a very big image) is not interrupted, the page stops right after it.
+ */
+public class PDFBudgetedRenderer extends PDFRenderer {
+
+    protected volatile long deadline = Long.MAX_VALUE;
+
+    public PDFBudgetedRenderer(PDDocument document) {
+        super(document);
+    }
+
+    /**
+     * @param deadline as System.currentTimeMillis(), applies to the next renders. Long.MAX_VALUE => no deadline
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    @Override
+    protected PageDrawer createPageDrawer(PageDrawerParameters parameters) throws IOException {
+
+        long pageDeadline = deadline;
+        if (pageDeadline == Long.MAX_VALUE) {
+            return super.createPageDrawer(parameters);
+        }
+
+        return new PageDrawer(parameters) {
+
+            @Override
+            protected void processOperator(Operator operator, List<COSBase> operands) throws IOException {
+                if (System.currentTimeMillis() > pageDeadline) {
+                    throw new PDFRenderTimeoutException("Page rendering exceeded its time budget");
+                }
+                super.processOperator(operator, operands);
+            }
+        };
+    }
+
+}
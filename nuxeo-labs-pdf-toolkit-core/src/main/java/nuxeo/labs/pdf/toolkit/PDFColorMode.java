@@ -0,0 +1,52 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Color mode of the rendered pages (see {@link PDFToImages#setColorMode(PDFColorMode)}):
+ * <ul>
+ * <li>RGB: color JPEG (the default)</li>
+ * <li>GRAY: 8-bit grayscale JPEG</li>
+ * <li>BINARY: 1-bit PNG</li>
+ * <li>AUTO: chosen per page, from a quick low resolution render of the page</li>
+ * </ul>
+ */
+public enum PDFColorMode {
+
+    RGB, GRAY, BINARY, AUTO;
+
+    /**
+     * @param value case insensitive, null or blank => RGB
+     * @return the mode
+     */
+    public static PDFColorMode parse(String value) {
+
+        if (StringUtils.isBlank(value)) {
+            return RGB;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid color mode: " + value + " (rgb, gray, binary or auto)", e);
+        }
+    }
+
+}
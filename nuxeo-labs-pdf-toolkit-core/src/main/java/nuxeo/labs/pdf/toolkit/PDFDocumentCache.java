@@ -0,0 +1,360 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Keeps parsed PDDocuments open, so successive requests on the same PDF (typically, a user browsing the previews of
+ * the pages) don't download and parse it again.
+ * <br>
+ * Usage:
+ *
+ * <pre>
+ * {@code
+ * try (PDFDocumentCache.Lease lease = PDFDocumentCache.getInstance().acquire(pdfBlob)) {
+ *     PDDocument document = lease.getDocument();
+ *     ...
+ * }
+ * }
+ * </pre>
+ *
+ * PDFBox documents are not thread safe: a lease gives an exclusive access to the document. Another thread asking for
+ * the same PDF meanwhile gets a private copy, loaded for its lease and closed with it, so a one page preview doesn't
+ * wait behind a full render (it only waits while the document is being loaded). Documents are reference-counted and
+ * closed only when nobody uses them.
+ * <br>
+ * The cache is bounded by the number of open documents ({@code nuxeo.pdftoolkit.documentcache.maxDocuments}, default
+ * 8, 0 disables the cache) and by the total size of their files ({@code nuxeo.pdftoolkit.documentcache.maxSizeMB},
+ * default 512; for a PDF read by ranges, the size of its block cache). Documents not used for
+ * {@code nuxeo.pdftoolkit.documentcache.idleSeconds} (default 300) are closed.
+ */
+public class PDFDocumentCache {
+
+    public static final String MAX_DOCUMENTS_PROPERTY = "nuxeo.pdftoolkit.documentcache.maxDocuments";
+
+    public static final String MAX_SIZE_PROPERTY = "nuxeo.pdftoolkit.documentcache.maxSizeMB";
+
+    public static final String IDLE_SECONDS_PROPERTY = "nuxeo.pdftoolkit.documentcache.idleSeconds";
+
+    public static final int DEFAULT_MAX_DOCUMENTS = 8;
+
+    public static final int DEFAULT_MAX_SIZE_MB = 512;
+
+    public static final int DEFAULT_IDLE_SECONDS = 300;
+
+    protected static PDFDocumentCache instance;
+
+    protected final int maxDocuments;
+
+    protected final long maxSizeBytes;
+
+    protected final long idleMs;
+
+    // Access order => least recently used first
+    protected final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    protected long hits = 0;
+
+    protected long misses = 0;
+
+    protected long evictions = 0;
+
+    // Documents loaded for one lease because the cached one was in use
+    protected long busyCopies = 0;
+
+    protected static class Entry {
+
+        protected final ReentrantLock lock = new ReentrantLock();
+
+        protected PDFSource source;
+
+        protected volatile PDDocument document;
+
+        protected long size = 0;
+
+        protected int refCount = 0;
+
+        protected long lastAccess;
+
+        protected boolean evicted = false;
+
+        protected void load(Blob pdfBlob) throws IOException {
+            // Read in place, by ranges or downloaded, see PDFSource
+            source = PDFSource.open(pdfBlob);
+            try {
+                document = PDFResourceCache.install(source.load());
+                size = source.getLocalSize();
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        protected void close() {
+            try {
+                if (document != null) {
+                    document.close();
+                }
+                if (source != null) {
+                    source.close();
+                }
+            } catch (IOException e) {
+                // Nothing we can do
+            }
+            document = null;
+            source = null;
+        }
+    }
+
+    /**
+     * Gives access to the document until closed.
+     */
+    public class Lease implements Closeable {
+
+        protected final Entry entry;
+
+        protected boolean closed = false;
+
+        protected Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        public PDDocument getDocument() {
+            return entry.document;
+        }
+
+        /**
+         * @return the source of the document, to load other copies of it (one per thread)
+         */
+        public PDFSource getSource() {
+            return entry.source;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(entry);
+            }
+        }
+    }
+
+    protected PDFDocumentCache(int maxDocuments, long maxSizeBytes, long idleMs) {
+        this.maxDocuments = maxDocuments;
+        this.maxSizeBytes = maxSizeBytes;
+        this.idleMs = idleMs;
+    }
+
+    public static synchronized PDFDocumentCache getInstance() {
+
+        if (instance == null) {
+            instance = new PDFDocumentCache(getIntProperty(MAX_DOCUMENTS_PROPERTY, DEFAULT_MAX_DOCUMENTS),
+                    getIntProperty(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE_MB) * 1024L * 1024L,
+                    getIntProperty(IDLE_SECONDS_PROPERTY, DEFAULT_IDLE_SECONDS) * 1000L);
+        }
+        return instance;
+    }
+
+    protected static int getIntProperty(String name, int defaultValue) {
+
+        String value = Framework.getProperty(name);
+        if (StringUtils.isNotBlank(value)) {
+            try {
+                return Math.max(Integer.parseInt(value.trim()), 0);
+            } catch (NumberFormatException e) {
+                // Ignore, use default
+            }
+        }
+        return defaultValue;
+    }
+
+    public boolean isEnabled() {
+        return maxDocuments > 0;
+    }
+
+    /**
+     * Returns a lease on the parsed PDF, loading it if needed. The lease must be closed.
+     * If the blob cannot be identified (see {@link PDFToolkitCache#getDocumentKey(Blob)}) or the cache is disabled,
+     * the document is loaded and closed with the lease.
+     *
+     * @param pdfBlob
+     * @return the lease
+     * @throws IOException
+     */
+    public Lease acquire(Blob pdfBlob) throws IOException {
+
+        String key = PDFToolkitCache.getDocumentKey(pdfBlob);
+        Entry entry;
+        synchronized (this) {
+            evictIdle();
+            entry = (key == null || !isEnabled()) ? null : entries.get(key);
+            if (entry == null) {
+                misses++;
+                entry = new Entry();
+                if (key != null && isEnabled()) {
+                    entries.put(key, entry);
+                } else {
+                    entry.evicted = true;
+                }
+            } else {
+                hits++;
+            }
+            entry.refCount++;
+            entry.lastAccess = System.currentTimeMillis();
+        }
+
+        if (!entry.lock.tryLock()) {
+            if (entry.document == null) {
+                // Being loaded: wait for it rather than parsing it twice
+                entry.lock.lock();
+            } else {
+                // In use (maybe for a long render): a private copy rather than waiting behind it
+                synchronized (this) {
+                    entry.refCount--;
+                    busyCopies++;
+                }
+                entry = new Entry();
+                entry.evicted = true;
+                entry.refCount = 1;
+                entry.lock.lock();
+            }
+        }
+        try {
+            if (entry.document == null) {
+                entry.load(pdfBlob);
+                synchronized (this) {
+                    evictOverBudget();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            entry.lock.unlock();
+            synchronized (this) {
+                entries.values().remove(entry);
+                entry.evicted = true;
+                entry.refCount--;
+            }
+            throw e;
+        }
+
+        return new Lease(entry);
+    }
+
+    protected void release(Entry entry) {
+
+        entry.lock.unlock();
+        synchronized (this) {
+            entry.refCount--;
+            entry.lastAccess = System.currentTimeMillis();
+            if (entry.evicted && entry.refCount == 0) {
+                entry.close();
+            } else {
+                evictOverBudget();
+            }
+        }
+    }
+
+    // Must be called with the monitor held
+    protected void evictIdle() {
+
+        long now = System.currentTimeMillis();
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.refCount == 0 && now - entry.lastAccess > idleMs) {
+                it.remove();
+                entry.evicted = true;
+                entry.close();
+                evictions++;
+            }
+        }
+    }
+
+    // Must be called with the monitor held. Documents in use are never closed, so the budget can be exceeded while
+    // they are used.
+    protected void evictOverBudget() {
+
+        int count = entries.size();
+        long size = 0;
+        for (Entry entry : entries.values()) {
+            size += entry.size;
+        }
+
+        Iterator<Entry> it = entries.values().iterator();
+        while ((count > maxDocuments || size > maxSizeBytes) && it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.refCount == 0) {
+                it.remove();
+                entry.evicted = true;
+                entry.close();
+                count--;
+                size -= entry.size;
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * Close all the documents not in use
+     */
+    public synchronized void clear() {
+
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next().getValue();
+            it.remove();
+            entry.evicted = true;
+            if (entry.refCount == 0) {
+                entry.close();
+            }
+        }
+    }
+
+    public synchronized JSONObject getStatistics() {
+
+        long size = 0;
+        for (Entry entry : entries.values()) {
+            size += entry.size;
+        }
+
+        JSONObject stats = new JSONObject();
+        stats.put("enabled", isEnabled());
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("busyCopies", busyCopies);
+        stats.put("entries", entries.size());
+        stats.put("sizeBytes", size);
+        stats.put("maxDocuments", maxDocuments);
+        stats.put("maxSizeBytes", maxSizeBytes);
+        return stats;
+    }
+
+}
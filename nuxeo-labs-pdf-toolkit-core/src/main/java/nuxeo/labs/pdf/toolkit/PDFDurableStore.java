@@ -0,0 +1,237 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.blob.BlobContext;
+import org.nuxeo.ecm.core.blob.BlobInfo;
+import org.nuxeo.ecm.core.blob.BlobManager;
+import org.nuxeo.ecm.core.blob.BlobProvider;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.kv.KeyValueStore;
+
+/**
+ * The durable tier of {@link PDFToolkitCache}: page images are kept forever (no TTL, no size limit), so each page of
+ * an immutable PDF is rendered once in its lifetime. The TransientStore stays the hot tier in front of it.
+ * <br>
+ * Only the page images (thumbnails, previews) of PDFs identified by their digest are stored: the same key always
+ * means the same content. Deep-zoom tiles are not (a big plan has thousands of them, and they are cheap to render
+ * again). Images are written in a dedicated blob provider, the mapping (page key => blob) is held in a KeyValueStore,
+ * with the list of the keys of each PDF, so everything stored for a PDF can be removed, see
+ * {@link #removeDocument(String)}.
+ * <br>
+ * Settings (nuxeo.conf):
+ * <ul>
+ * <li>{@code nuxeo.pdftoolkit.durable.enabled}: true/false, default false</li>
+ * <li>{@code nuxeo.pdftoolkit.durable.blobProvider}: the blob provider, default "pdftoolkit". It must be contributed,
+ * and must not be the blob provider of a repository (its binaries garbage collector would delete the images, which
+ * are not referenced by any document)</li>
+ * <li>{@code nuxeo.pdftoolkit.durable.keyValueStore}: the KeyValueStore, default "pdftoolkit"</li>
+ * </ul>
+ */
+public class PDFDurableStore {
+
+    public static final String ENABLED_PROPERTY = "nuxeo.pdftoolkit.durable.enabled";
+
+    public static final String BLOB_PROVIDER_PROPERTY = "nuxeo.pdftoolkit.durable.blobProvider";
+
+    public static final String KEY_VALUE_STORE_PROPERTY = "nuxeo.pdftoolkit.durable.keyValueStore";
+
+    public static final String DEFAULT_NAME = "pdftoolkit";
+
+    protected static final Pattern DIGEST_PATTERN = Pattern.compile("^[0-9a-fA-F]{32,128}$");
+
+    // {digest}-p{page}-{variant}, see PDFToolkitCache.getPageKey(). Not the tiles (variant "tile...")
+    protected static final Pattern PAGE_KEY_PATTERN = Pattern.compile("^([0-9a-fA-F]{32,128})-p\\d+-(?!tile).+");
+
+    // The keys stored for a PDF, one per line
+    protected static final String INDEX_SUFFIX = "-durable-keys";
+
+    protected static final int MAX_INDEX_ATTEMPTS = 10;
+
+    protected final BlobProvider blobProvider;
+
+    protected final KeyValueStore keyValueStore;
+
+    protected PDFDurableStore(BlobProvider blobProvider, KeyValueStore keyValueStore) {
+        this.blobProvider = blobProvider;
+        this.keyValueStore = keyValueStore;
+    }
+
+    /**
+     * @return the durable store, null if it is not enabled
+     */
+    public static PDFDurableStore getIfEnabled() {
+
+        if (!Boolean.parseBoolean(Framework.getProperty(ENABLED_PROPERTY, "false"))) {
+            return null;
+        }
+
+        String providerId = Framework.getProperty(BLOB_PROVIDER_PROPERTY, DEFAULT_NAME);
+        BlobProvider blobProvider = Framework.getService(BlobManager.class).getBlobProvider(providerId);
+        if (blobProvider == null) {
+            throw new NuxeoException("PDF Toolkit durable store: no blob provider " + providerId);
+        }
+        String storeName = Framework.getProperty(KEY_VALUE_STORE_PROPERTY, DEFAULT_NAME);
+        KeyValueStore keyValueStore = Framework.getService(KeyValueService.class).getKeyValueStore(storeName);
+
+        return new PDFDurableStore(blobProvider, keyValueStore);
+    }
+
+    /**
+     * @param documentKey
+     * @return true if the PDF is identified by its digest (see {@link PDFToolkitCache#getDocumentKey(Blob)})
+     */
+    public static boolean isDigest(String documentKey) {
+        return documentKey != null && DIGEST_PATTERN.matcher(documentKey).matches();
+    }
+
+    /**
+     * @param key
+     * @return true if the entry is a page image (not a tile) of a PDF identified by its digest
+     */
+    public static boolean accepts(String key) {
+        return key != null && PAGE_KEY_PATTERN.matcher(key).matches();
+    }
+
+    /**
+     * @param key
+     * @return the image, null if not stored
+     */
+    public Blob getBlob(String key) {
+
+        String value = keyValueStore.getString(key);
+        if (StringUtils.isBlank(value)) {
+            return null;
+        }
+
+        JSONObject json = new JSONObject(value);
+        BlobInfo info = new BlobInfo();
+        info.key = json.getString("key");
+        info.mimeType = json.optString("mimeType", null);
+        info.filename = json.optString("filename", null);
+        info.length = json.optLong("length", -1);
+        try {
+            return blobProvider.readBlob(info);
+        } catch (IOException e) {
+            throw new NuxeoException("Failed to read " + key + " from the durable store", e);
+        }
+    }
+
+    public void putBlob(String key, Blob blob) {
+
+        JSONObject json = new JSONObject();
+        try {
+            json.put("key", blobProvider.writeBlob(blob));
+        } catch (IOException e) {
+            throw new NuxeoException("Failed to write " + key + " in the durable store", e);
+        }
+        json.put("mimeType", blob.getMimeType());
+        json.put("filename", blob.getFilename());
+        json.put("length", blob.getLength());
+        keyValueStore.put(key, json.toString());
+
+        Matcher matcher = PAGE_KEY_PATTERN.matcher(key);
+        if (matcher.matches()) {
+            addToIndex(matcher.group(1), key);
+        }
+    }
+
+    protected void addToIndex(String documentKey, String key) {
+
+        String indexKey = documentKey + INDEX_SUFFIX;
+        for (int attempt = 0; attempt < MAX_INDEX_ATTEMPTS; attempt++) {
+            String keys = keyValueStore.getString(indexKey);
+            if (keys != null && Arrays.asList(keys.split("\n")).contains(key)) {
+                return;
+            }
+            // Another node may add a key of the same PDF at the same time
+            if (keyValueStore.compareAndSet(indexKey, keys, keys == null ? key : keys + "\n" + key)) {
+                return;
+            }
+        }
+        throw new NuxeoException("PDF Toolkit durable store: failed to index " + key);
+    }
+
+    /**
+     * Remove the images and the page count of a PDF. The images are deleted from the blob provider when it supports
+     * it, else only their mapping is removed.
+     *
+     * @param documentKey a digest, see isDigest()
+     * @return the number of images removed
+     */
+    public int removeDocument(String documentKey) {
+
+        String indexKey = documentKey + INDEX_SUFFIX;
+        String keys = keyValueStore.getString(indexKey);
+        int removed = 0;
+        if (StringUtils.isNotBlank(keys)) {
+            for (String key : keys.split("\n")) {
+                String value = keyValueStore.getString(key);
+                if (StringUtils.isBlank(value)) {
+                    continue;
+                }
+                BlobInfo info = new BlobInfo();
+                info.key = new JSONObject(value).getString("key");
+                try {
+                    Blob blob = blobProvider.readBlob(info);
+                    blobProvider.deleteBlob(new BlobContext(blob, (String) null, (String) null));
+                } catch (IOException e) {
+                    throw new NuxeoException("Failed to remove " + key + " from the durable store", e);
+                } catch (UnsupportedOperationException e) {
+                    // The provider can't delete: the image is no longer referenced, at least
+                }
+                keyValueStore.put(key, (String) null);
+                removed++;
+            }
+        }
+        keyValueStore.put(indexKey, (String) null);
+        keyValueStore.put(PDFToolkitCache.getManifestKey(documentKey), (String) null);
+
+        return removed;
+    }
+
+    /**
+     * @param documentKey a digest, see isDigest()
+     * @return the page count, -1 if not stored
+     */
+    public int getPageCount(String documentKey) {
+
+        String value = keyValueStore.getString(PDFToolkitCache.getManifestKey(documentKey));
+        try {
+            return StringUtils.isBlank(value) ? -1 : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public void putPageCount(String documentKey, int pageCount) {
+        keyValueStore.put(PDFToolkitCache.getManifestKey(documentKey), String.valueOf(pageCount));
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Encodes the rendered pages.
+ * <br>
+ * Each thread reuses its JPEG ImageWriter and its output buffer, images are encoded in memory and, when small enough
+ * (which is the case of thumbnails and previews), returned as in-memory blobs: no temp file, no writer lookup, no
+ * plugin scan per image.
+ * <br>
+ * Settings (nuxeo.conf):
+ * <ul>
+ * <li>{@code nuxeo.pdftoolkit.jpeg.quality}: 0.0 - 1.0, default 0.75 (the ImageIO default)</li>
+ * <li>{@code nuxeo.pdftoolkit.jpeg.progressive}: true/false, default false (baseline)</li>
+ * <li>{@code nuxeo.pdftoolkit.encoder.inMemoryMaxSizeKB}: above this size, the image is saved in a temp file (0:
+ * always). Default 1024</li>
+ * </ul>
+ */
+public class PDFImageEncoder {
+
+    public static final String JPEG_QUALITY_PROPERTY = "nuxeo.pdftoolkit.jpeg.quality";
+
+    public static final String JPEG_PROGRESSIVE_PROPERTY = "nuxeo.pdftoolkit.jpeg.progressive";
+
+    public static final String IN_MEMORY_MAX_SIZE_PROPERTY = "nuxeo.pdftoolkit.encoder.inMemoryMaxSizeKB";
+
+    public static final float DEFAULT_JPEG_QUALITY = 0.75f;
+
+    public static final int DEFAULT_IN_MEMORY_MAX_SIZE_KB = 1024;
+
+    // Don't keep huge buffers attached to the threads
+    protected static final int MAX_POOLED_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    protected static final ThreadLocal<ImageWriter> JPEG_WRITER = new ThreadLocal<>();
+
+    protected static final ThreadLocal<ByteArrayOutputStream> BUFFER = ThreadLocal.withInitial(
+            () -> new ByteArrayOutputStream(64 * 1024));
+
+    static {
+        // Once, not for every request
+        ImageIO.scanForPlugins();
+    }
+
+    protected float jpegQuality;
+
+    protected boolean progressive;
+
+    protected long inMemoryMaxSize;
+
+    public PDFImageEncoder() {
+
+        jpegQuality = DEFAULT_JPEG_QUALITY;
+        String value = Framework.getProperty(JPEG_QUALITY_PROPERTY);
+        if (StringUtils.isNotBlank(value)) {
+            try {
+                float quality = Float.parseFloat(value.trim());
+                if (quality > 0 && quality <= 1) {
+                    jpegQuality = quality;
+                }
+            } catch (NumberFormatException e) {
+                // Ignore, use default
+            }
+        }
+
+        progressive = Boolean.parseBoolean(Framework.getProperty(JPEG_PROGRESSIVE_PROPERTY, "false"));
+
+        long maxSizeKB = DEFAULT_IN_MEMORY_MAX_SIZE_KB;
+        value = Framework.getProperty(IN_MEMORY_MAX_SIZE_PROPERTY);
+        if (StringUtils.isNotBlank(value)) {
+            try {
+                maxSizeKB = Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                // Ignore, use default
+            }
+        }
+        inMemoryMaxSize = maxSizeKB * 1024;
+    }
+
+    /**
+     * Encode the image as a blob.
+     *
+     * @param img
+     * @param formatName "jpg" uses the pooled JPEG writer, any other value goes through ImageIO
+     * @param fileNameNoExt
+     * @param fileExtension
+     * @param mimeType
+     * @return
+     * @throws IOException
+     */
+    public Blob toBlob(BufferedImage img, String formatName, String fileNameNoExt, String fileExtension,
+            String mimeType) throws IOException {
+
+        byte[] bytes;
+        if ("jpg".equals(formatName) || "jpeg".equals(formatName)) {
+            bytes = encodeJpeg(img);
+        } else {
+            bytes = encode(img, formatName);
+        }
+
+        Blob result;
+        if (bytes.length <= inMemoryMaxSize) {
+            result = Blobs.createBlob(bytes, mimeType);
+        } else {
+            File resultFile = Framework.createTempFile(fileNameNoExt, fileExtension);
+            Files.write(resultFile.toPath(), bytes);
+            result = new FileBlob(resultFile);
+            result.setMimeType(mimeType);
+        }
+        result.setFilename(fileNameNoExt + fileExtension);
+
+        return result;
+    }
+
+    public byte[] encodeJpeg(BufferedImage img) throws IOException {
+
+        ImageWriter writer = getJpegWriter();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(jpegQuality);
+        param.setProgressiveMode(progressive ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+
+        ByteArrayOutputStream buffer = getBuffer();
+        try (ImageOutputStream out = new MemoryCacheImageOutputStream(buffer)) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(img, null, null), param);
+        } finally {
+            writer.reset();
+        }
+
+        return releaseBuffer(buffer);
+    }
+
+    protected byte[] encode(BufferedImage img, String formatName) throws IOException {
+
+        ByteArrayOutputStream buffer = getBuffer();
+        try (ImageOutputStream out = new MemoryCacheImageOutputStream(buffer)) {
+            if (!ImageIO.write(img, formatName, out)) {
+                throw new IOException("No ImageIO writer for " + formatName);
+            }
+        }
+
+        return releaseBuffer(buffer);
+    }
+
+    protected static ImageWriter getJpegWriter() throws IOException {
+
+        ImageWriter writer = JPEG_WRITER.get();
+        if (writer == null) {
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+            if (!writers.hasNext()) {
+                throw new IOException("No JPEG ImageIO writer available");
+            }
+            writer = writers.next();
+            JPEG_WRITER.set(writer);
+        }
+        return writer;
+    }
+
+    protected static ByteArrayOutputStream getBuffer() {
+        ByteArrayOutputStream buffer = BUFFER.get();
+        buffer.reset();
+        return buffer;
+    }
+
+    protected static byte[] releaseBuffer(ByteArrayOutputStream buffer) {
+        byte[] bytes = buffer.toByteArray();
+        if (buffer.size() > MAX_POOLED_BUFFER_SIZE) {
+            BUFFER.remove();
+        }
+        return bytes;
+    }
+
+}
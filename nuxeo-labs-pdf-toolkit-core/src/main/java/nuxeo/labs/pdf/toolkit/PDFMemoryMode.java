@@ -0,0 +1,106 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessStreamCache.StreamCacheCreateFunction;
+import org.apache.pdfbox.io.ScratchFile;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Where PDFBox keeps the streams of the documents handled by the page operations (extract, remove, reorder, ...):
+ * <ul>
+ * <li>MEMORY: on the heap, no limit (the default, fastest for usual PDFs)</li>
+ * <li>MIXED: on the heap up to a ceiling, then in scratch files</li>
+ * <li>FILE: in scratch files only, the heap use does not depend on the size of the PDF</li>
+ * </ul>
+ * In all modes, the source PDF is read from its file (or by ranges, see {@link PDFSource}), not loaded in memory.
+ * <br>
+ * The default comes from {@code nuxeo.pdftoolkit.pages.memoryMode}. The ceiling of the MIXED mode is
+ * {@code nuxeo.pdftoolkit.pages.maxHeapMB} (default 64) per operation, shared by its source and result documents
+ * when it creates a new PDF.
+ */
+public enum PDFMemoryMode {
+
+    MEMORY, MIXED, FILE;
+
+    public static final String MEMORY_MODE_PROPERTY = "nuxeo.pdftoolkit.pages.memoryMode";
+
+    public static final String MAX_HEAP_PROPERTY = "nuxeo.pdftoolkit.pages.maxHeapMB";
+
+    public static final int DEFAULT_MAX_HEAP_MB = 64;
+
+    /**
+     * @param value case insensitive, null or blank => MEMORY
+     * @return the mode
+     */
+    public static PDFMemoryMode parse(String value) {
+
+        if (StringUtils.isBlank(value)) {
+            return MEMORY;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid memory mode: " + value + " (memory, mixed or file)", e);
+        }
+    }
+
+    /**
+     * @return the mode set by configuration
+     */
+    public static PDFMemoryMode getConfigured() {
+        return parse(Framework.getProperty(MEMORY_MODE_PROPERTY));
+    }
+
+    /**
+     * @return the heap ceiling of an operation in MIXED mode, in bytes
+     */
+    public static long getConfiguredMaxHeap() {
+
+        String value = Framework.getProperty(MAX_HEAP_PROPERTY);
+        if (StringUtils.isNotBlank(value)) {
+            try {
+                return Math.max(Integer.parseInt(value.trim()), 1) * 1024L * 1024L;
+            } catch (NumberFormatException e) {
+                // Ignore, use default
+            }
+        }
+        return DEFAULT_MAX_HEAP_MB * 1024L * 1024L;
+    }
+
+    /**
+     * @param maxHeapBytes used in MIXED mode only
+     * @return the stream cache to pass to Loader.loadPDF() or new PDDocument()
+     */
+    public StreamCacheCreateFunction getStreamCache(long maxHeapBytes) {
+
+        switch (this) {
+        case MIXED:
+            return () -> new ScratchFile(MemoryUsageSetting.setupMixed(maxHeapBytes));
+        case FILE:
+            return IOUtils.createTempFileOnlyStreamCache();
+        default:
+            return IOUtils.createMemoryOnlyStreamCache();
+        }
+    }
+
+}
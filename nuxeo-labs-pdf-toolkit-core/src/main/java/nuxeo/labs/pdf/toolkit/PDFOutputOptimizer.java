@@ -0,0 +1,323 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Makes the PDFs saved by the toolkit smaller (see {@link PDFTools#saveToFileBlob}):
+ * <ul>
+ * <li>Unused resources: pages imported from a big PDF often share its resource dictionaries, and carry all its fonts
+ * and images. Each page gets its own resources, with only the fonts and XObjects its content uses.</li>
+ * <li>Duplicates: fonts and XObjects with the same content (same bytes, same dictionary) are written once.</li>
+ * </ul>
+ * The objects of the source document are never modified: new resource dictionaries are set on the pages. A page whose
+ * content can't be parsed keeps its resources, as does a page that may use them indirectly (a form XObject with no
+ * resources of its own, which inherits the resources of the page, or a graphics state setting a font). Form XObjects,
+ * patterns, annotations, ... keep their own resources. Objects that can't be fully compared (too deep, unreadable
+ * stream) are never merged.
+ * <br>
+ * {@code nuxeo.pdftoolkit.output.optimize=false} disables it (and the compressed object streams).
+ */
+public class PDFOutputOptimizer {
+
+    public static final String OPTIMIZE_PROPERTY = "nuxeo.pdftoolkit.output.optimize";
+
+    // Deeper objects are not compared (never merged)
+    protected static final int MAX_KEY_DEPTH = 8;
+
+    protected final PDDocument document;
+
+    // Canonical entry (as stored in the resources, usually a COSObject) for each content key
+    protected final Map<String, COSBase> canonical = new HashMap<>();
+
+    protected final Map<COSBase, String> keys = new IdentityHashMap<>();
+
+    protected int prunedCount = 0;
+
+    protected int mergedCount = 0;
+
+    public PDFOutputOptimizer(PDDocument document) {
+        this.document = document;
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(Framework.getProperty(OPTIMIZE_PROPERTY, "true"));
+    }
+
+    /**
+     * Prune and deduplicate the fonts and XObjects of all the pages.
+     */
+    public void optimize() {
+
+        for (PDPage page : document.getPages()) {
+            PDResources resources = page.getResources();
+            if (resources == null) {
+                continue;
+            }
+
+            Set<COSName> usedFonts = new HashSet<>();
+            Set<COSName> usedXObjects = new HashSet<>();
+            Set<COSName> usedExtGStates = new HashSet<>();
+            try {
+                getUsedNames(page, usedFonts, usedXObjects, usedExtGStates);
+            } catch (IOException | RuntimeException e) {
+                // Not parsable, don't touch
+                continue;
+            }
+            if (usesResourcesIndirectly(resources, usedXObjects, usedExtGStates)) {
+                continue;
+            }
+
+            COSDictionary pageResources = new COSDictionary(resources.getCOSObject());
+            filter(pageResources, COSName.FONT, usedFonts);
+            filter(pageResources, COSName.XOBJECT, usedXObjects);
+            page.getCOSObject().setItem(COSName.RESOURCES, pageResources);
+        }
+    }
+
+    protected void getUsedNames(PDPage page, Set<COSName> usedFonts, Set<COSName> usedXObjects,
+            Set<COSName> usedExtGStates) throws IOException {
+
+        List<COSBase> operands = new ArrayList<>();
+        for (Object token : new PDFStreamParser(page).parse()) {
+            if (!(token instanceof Operator)) {
+                if (token instanceof COSBase) {
+                    operands.add((COSBase) token);
+                }
+                continue;
+            }
+
+            String operator = ((Operator) token).getName();
+            if ("Tf".equals(operator) && !operands.isEmpty() && operands.get(0) instanceof COSName) {
+                usedFonts.add((COSName) operands.get(0));
+            } else if ("Do".equals(operator) && !operands.isEmpty()
+                    && operands.get(operands.size() - 1) instanceof COSName) {
+                usedXObjects.add((COSName) operands.get(operands.size() - 1));
+            } else if ("gs".equals(operator) && !operands.isEmpty() && operands.get(0) instanceof COSName) {
+                usedExtGStates.add((COSName) operands.get(0));
+            }
+            operands.clear();
+        }
+    }
+
+    /*
+     * True if the page may use fonts or XObjects not named in its content: a form XObject without /Resources (legacy,
+     * it uses the resources of the page), or a graphics state with a /Font.
+     */
+    protected static boolean usesResourcesIndirectly(PDResources resources, Set<COSName> usedXObjects,
+            Set<COSName> usedExtGStates) {
+
+        COSDictionary resourcesDict = resources.getCOSObject();
+        COSDictionary xObjects = resourcesDict.getCOSDictionary(COSName.XOBJECT);
+        if (xObjects != null) {
+            for (COSName name : usedXObjects) {
+                COSBase xObject = getObject(xObjects.getItem(name));
+                if (xObject instanceof COSStream && !((COSStream) xObject).containsKey(COSName.RESOURCES)
+                        && COSName.FORM.equals(((COSStream) xObject).getCOSName(COSName.SUBTYPE))) {
+                    return true;
+                }
+            }
+        }
+
+        COSDictionary extGStates = resourcesDict.getCOSDictionary(COSName.EXT_G_STATE);
+        if (extGStates != null) {
+            for (COSName name : usedExtGStates) {
+                COSBase extGState = getObject(extGStates.getItem(name));
+                if (extGState instanceof COSDictionary && ((COSDictionary) extGState).containsKey(COSName.FONT)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     * Replace the category (Font, XObject) with a new dictionary holding only the used entries, duplicates being
+     * replaced with the first entry having the same content.
+     */
+    protected void filter(COSDictionary pageResources, COSName category, Set<COSName> used) {
+
+        COSDictionary entries = pageResources.getCOSDictionary(category);
+        if (entries == null) {
+            return;
+        }
+
+        COSDictionary filtered = new COSDictionary();
+        for (COSName name : entries.keySet()) {
+            if (!used.contains(name)) {
+                prunedCount++;
+                continue;
+            }
+            COSBase entry = entries.getItem(name);
+            String key = getKey(entry, 0);
+            // null: not fully compared, kept as is
+            COSBase first = key == null ? null : canonical.putIfAbsent(key, entry);
+            if (first != null && first != entry && getObject(first) != getObject(entry)) {
+                mergedCount++;
+                entry = first;
+            }
+            filtered.setItem(name, entry);
+        }
+        pageResources.setItem(category, filtered);
+    }
+
+    protected static COSBase getObject(COSBase base) {
+        return base instanceof COSObject ? ((COSObject) base).getObject() : base;
+    }
+
+    /*
+     * A key identifying the content of the object: the digest of its bytes for a stream, and of its entries (except
+     * Length), recursively. null if the object can't be fully compared (too deep, unreadable stream), so it is never
+     * merged.
+     */
+    protected String getKey(COSBase base, int depth) {
+
+        COSBase object = getObject(base);
+        if (object == null) {
+            return "null";
+        }
+        if (!(object instanceof COSDictionary) && !(object instanceof COSArray)) {
+            return object.toString();
+        }
+        if (depth > MAX_KEY_DEPTH) {
+            return null;
+        }
+
+        if (keys.containsKey(object)) {
+            return keys.get(object);
+        }
+
+        String key = computeKey(object, depth);
+        keys.put(object, key);
+        return key;
+    }
+
+    protected String computeKey(COSBase object, int depth) {
+
+        StringBuilder sb = new StringBuilder();
+        if (object instanceof COSArray) {
+            sb.append('[');
+            for (COSBase item : (COSArray) object) {
+                String itemKey = getKey(item, depth + 1);
+                if (itemKey == null) {
+                    return null;
+                }
+                sb.append(itemKey).append(' ');
+            }
+            sb.append(']');
+        } else {
+            COSDictionary dict = (COSDictionary) object;
+            if (dict instanceof COSStream) {
+                String streamDigest = getStreamDigest((COSStream) dict);
+                if (streamDigest == null) {
+                    return null;
+                }
+                sb.append("stream ").append(streamDigest).append(' ');
+            }
+            sb.append("<<");
+            List<COSName> names = new ArrayList<>(dict.keySet());
+            names.sort(null);
+            for (COSName name : names) {
+                if (COSName.LENGTH.equals(name)) {
+                    continue;
+                }
+                String itemKey = getKey(dict.getItem(name), depth + 1);
+                if (itemKey == null) {
+                    return null;
+                }
+                sb.append(name.getName()).append('=').append(itemKey).append(' ');
+            }
+            sb.append(">>");
+        }
+
+        return digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /*
+     * null if the stream can't be read
+     */
+    protected static String getStreamDigest(COSStream stream) {
+
+        try (InputStream in = stream.createRawInputStream()) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException e) {
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            throw new NuxeoException(e);
+        }
+    }
+
+    protected static String digest(byte[] bytes) {
+
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new NuxeoException(e);
+        }
+    }
+
+    /**
+     * @return number of font and XObject entries removed from the resources of the pages
+     */
+    public int getPrunedCount() {
+        return prunedCount;
+    }
+
+    /**
+     * @return number of font and XObject entries replaced with an identical one
+     */
+    public int getMergedCount() {
+        return mergedCount;
+    }
+
+}
@@ -19,13 +19,24 @@
 package nuxeo.labs.pdf.toolkit;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+import org.nuxeo.ecm.automation.core.util.BlobList;
 import org.nuxeo.ecm.core.api.Blob;
-import org.nuxeo.ecm.core.api.CloseableFile;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.NuxeoException;
 
@@ -39,6 +50,10 @@ public class PDFPageExtractor {
 
     protected Blob pdfBlob;
 
+    protected PDFMemoryMode memoryMode = PDFMemoryMode.getConfigured();
+
+    protected int parallelism = 1;
+
     // ========================================
     // Constructors
     // ========================================
@@ -64,6 +79,13 @@ public class PDFPageExtractor {
 
     }
 
+    /**
+     * @param memoryMode where PDFBox keeps the streams, null => from configuration (see {@link PDFMemoryMode})
+     */
+    public void setMemoryMode(PDFMemoryMode memoryMode) {
+        this.memoryMode = memoryMode == null ? PDFMemoryMode.getConfigured() : memoryMode;
+    }
+
     // ========================================
     // Extract pages
     // ========================================
@@ -87,9 +109,11 @@ public class PDFPageExtractor {
             throw new IllegalArgumentException("Range must not be null or blank");
         }
 
-        try (CloseableFile source = pdfBlob.getCloseableFile();
-                PDDocument sourcePdf = Loader.loadPDF(source.getFile());
-                PDDocument extracted = new PDDocument()) {
+        // Source and result share the heap ceiling of the operation
+        long maxHeapBytes = PDFMemoryMode.getConfiguredMaxHeap() / 2;
+        try (PDFSource source = PDFSource.open(pdfBlob);
+                PDDocument sourcePdf = source.load(memoryMode.getStreamCache(maxHeapBytes));
+                PDDocument extracted = new PDDocument(memoryMode.getStreamCache(maxHeapBytes))) {
 
             int pageCount = sourcePdf.getNumberOfPages();
             if (pageCount == 0) {
@@ -116,4 +140,246 @@ public class PDFPageExtractor {
         }
     }
 
+    // ========================================
+    // Split
+    // ========================================
+    /**
+     * One output of a split: its pages and the suffix of its file name
+     */
+    protected static class Chunk {
+
+        protected final Set<Integer> pages;
+
+        protected final String suffix;
+
+        protected Chunk(Set<Integer> pages, String suffix) {
+            this.pages = pages;
+            this.suffix = suffix;
+        }
+    }
+
+    /**
+     * @param value number of threads writing the outputs of a split, each one loading its own copy of the PDF. <= 0
+     *            => 1, the PDF is loaded once. Else, capped like the rendering, see
+     *            {@link PDFToolkitExecutor#clampParallelism(int)}
+     */
+    public void setParallelism(int value) {
+        parallelism = value <= 0 ? 1 : PDFToolkitExecutor.clampParallelism(value);
+    }
+
+    /**
+     * Split the PDF, loaded once, in one PDF per range.
+     *
+     * @param ranges "print dialog" style ranges, see {@link #extractPages(String)}
+     * @return the PDFs, in the order of the ranges. File names are {originalName}-part{n}.pdf
+     * @throws NuxeoException if reading or writing the PDF fails
+     * @throws IllegalArgumentException if a range is malformed
+     */
+    public BlobList splitByRanges(List<String> ranges) {
+
+        if (ranges == null || ranges.isEmpty()) {
+            throw new IllegalArgumentException("Ranges must not be null or empty");
+        }
+
+        return split(document -> {
+            int pageCount = document.getNumberOfPages();
+            List<Chunk> chunks = new ArrayList<>();
+            for (String range : ranges) {
+                if (StringUtils.isBlank(range)) {
+                    throw new IllegalArgumentException("Range must not be null or blank");
+                }
+                Set<Integer> pages = PDFTools.parsePageRange(range, pageCount);
+                if (pages.isEmpty()) {
+                    throw new IllegalArgumentException("Range does not select any pages: \"" + range + "\"");
+                }
+                chunks.add(new Chunk(pages, "-part" + (chunks.size() + 1)));
+            }
+            return chunks;
+        });
+    }
+
+    /**
+     * Split the PDF, loaded once, in PDFs of pagesPerChunk pages (the last one may have less).
+     *
+     * @param pagesPerChunk
+     * @return the PDFs. File names are {originalName}-part{n}.pdf
+     * @throws NuxeoException if reading or writing the PDF fails
+     */
+    public BlobList splitEveryNPages(int pagesPerChunk) {
+
+        if (pagesPerChunk < 1) {
+            throw new IllegalArgumentException("The number of pages per chunk must be at least 1");
+        }
+
+        return split(document -> {
+            int pageCount = document.getNumberOfPages();
+            List<Chunk> chunks = new ArrayList<>();
+            for (int start = 1; start <= pageCount; start += pagesPerChunk) {
+                chunks.add(new Chunk(toPageSet(start, Math.min(start + pagesPerChunk - 1, pageCount)),
+                        "-part" + (chunks.size() + 1)));
+            }
+            return chunks;
+        });
+    }
+
+    /**
+     * Split the PDF, loaded once, in one PDF per top-level bookmark: from its page to the page before the next
+     * bookmark. The pages before the first bookmark, if any, are in a first PDF.
+     *
+     * @return the PDFs, in the order of the pages. File names are {originalName}-{bookmark title}.pdf
+     * @throws NuxeoException if reading or writing the PDF fails
+     * @throws IllegalArgumentException if the PDF has no bookmark pointing to one of its pages
+     */
+    public BlobList splitByBookmarks() {
+
+        return split(document -> {
+            // Start page (1-based) => title, the first bookmark wins when several point to the same page
+            TreeMap<Integer, String> starts = new TreeMap<>();
+            PDDocumentOutline outline = document.getDocumentCatalog().getDocumentOutline();
+            if (outline != null) {
+                for (PDOutlineItem item : outline.children()) {
+                    PDPage page = item.findDestinationPage(document);
+                    int index = page == null ? -1 : document.getPages().indexOf(page);
+                    if (index >= 0) {
+                        starts.putIfAbsent(index + 1, item.getTitle());
+                    }
+                }
+            }
+            if (starts.isEmpty()) {
+                throw new IllegalArgumentException("The PDF has no top-level bookmark pointing to one of its pages");
+            }
+
+            int pageCount = document.getNumberOfPages();
+            List<Chunk> chunks = new ArrayList<>();
+            if (starts.firstKey() > 1) {
+                chunks.add(new Chunk(toPageSet(1, starts.firstKey() - 1), "-part0"));
+            }
+            for (Map.Entry<Integer, String> start : starts.entrySet()) {
+                Integer next = starts.higherKey(start.getKey());
+                int end = next == null ? pageCount : next - 1;
+                chunks.add(new Chunk(toPageSet(start.getKey(), end), toSuffix(start.getValue(), chunks.size() + 1)));
+            }
+            return chunks;
+        });
+    }
+
+    protected static Set<Integer> toPageSet(int start, int end) {
+
+        Set<Integer> pages = new TreeSet<>();
+        for (int page = start; page <= end; page++) {
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    protected static String toSuffix(String title, int partNumber) {
+
+        String cleaned = StringUtils.isBlank(title) ? "" : title.trim().replaceAll("[^\\p{L}\\p{N}._ -]", "_");
+        if (StringUtils.isBlank(cleaned)) {
+            return "-part" + partNumber;
+        }
+        return "-" + StringUtils.left(cleaned, 64);
+    }
+
+    protected interface Chunker {
+        List<Chunk> getChunks(PDDocument document) throws IOException;
+    }
+
+    protected BlobList split(Chunker chunker) {
+
+        // Source and result share the heap ceiling of the operation
+        long maxHeapBytes = PDFMemoryMode.getConfiguredMaxHeap() / 2;
+        try (PDFSource source = PDFSource.open(pdfBlob)) {
+
+            List<Chunk> chunks;
+            int workers;
+            try (PDDocument sourcePdf = source.load(memoryMode.getStreamCache(maxHeapBytes))) {
+
+                if (sourcePdf.getNumberOfPages() == 0) {
+                    throw new IllegalArgumentException("Source PDF has no pages");
+                }
+
+                chunks = chunker.getChunks(sourcePdf);
+                workers = Math.min(parallelism, chunks.size());
+                if (workers <= 1) {
+                    BlobList blobs = new BlobList();
+                    for (Chunk chunk : chunks) {
+                        blobs.add(saveChunk(sourcePdf, chunk, maxHeapBytes));
+                    }
+                    return blobs;
+                }
+            }
+
+            // This copy is closed, the workers share the heap ceiling: each one loads its copy and writes its results
+            // with a part of it
+            return splitInParallel(source, chunks, workers, maxHeapBytes / workers);
+
+        } catch (IOException e) {
+            throw new NuxeoException("Failed to split the PDF", e);
+        }
+    }
+
+    protected Blob saveChunk(PDDocument sourcePdf, Chunk chunk, long maxHeapBytes) throws IOException {
+
+        try (PDDocument extracted = new PDDocument(memoryMode.getStreamCache(maxHeapBytes))) {
+            for (int pageNumber : chunk.pages) {
+                extracted.importPage(sourcePdf.getPage(pageNumber - 1));
+            }
+            return PDFTools.saveToFileBlob(pdfBlob, extracted, "pdf-split", chunk.suffix);
+        }
+    }
+
+    /*
+     * PDFBox documents are not thread safe: each worker loads its own copy of the PDF (the PDF is then parsed once
+     * per worker, not once per chunk), and writes the chunks w, w + workers, ... The workers run on the threads
+     * shared by the toolkit (see PDFToolkitExecutor).
+     */
+    protected BlobList splitInParallel(PDFSource source, List<Chunk> chunks, int workers, long maxHeapBytes)
+            throws IOException {
+
+        ExecutorService executor = PDFToolkitExecutor.getExecutor();
+        List<Future<List<Blob>>> futures = new ArrayList<>();
+        try {
+            for (int worker = 0; worker < workers; worker++) {
+                int first = worker;
+                futures.add(executor.submit(() -> {
+                    List<Blob> blobs = new ArrayList<>();
+                    try (PDDocument document = source.load(memoryMode.getStreamCache(maxHeapBytes))) {
+                        for (int i = first; i < chunks.size(); i += workers) {
+                            blobs.add(saveChunk(document, chunks.get(i), maxHeapBytes));
+                        }
+                    }
+                    return blobs;
+                }));
+            }
+
+            Blob[] ordered = new Blob[chunks.size()];
+            for (int worker = 0; worker < workers; worker++) {
+                List<Blob> blobs = futures.get(worker).get();
+                for (int i = 0; i < blobs.size(); i++) {
+                    ordered[worker + i * workers] = blobs.get(i);
+                }
+            }
+
+            BlobList blobs = new BlobList();
+            blobs.addAll(Arrays.asList(ordered));
+            return blobs;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NuxeoException("Interrupted while splitting the PDF", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new NuxeoException(e.getCause());
+        } finally {
+            // No-op for the completed ones
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
 }
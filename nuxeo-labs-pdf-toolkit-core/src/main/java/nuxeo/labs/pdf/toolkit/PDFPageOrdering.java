@@ -23,10 +23,8 @@ import java.util.HashSet;
 import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.nuxeo.ecm.core.api.Blob;
-import org.nuxeo.ecm.core.api.CloseableFile;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.NuxeoException;
 
@@ -38,6 +36,8 @@ public class PDFPageOrdering {
 
     protected Blob pdfBlob;
 
+    protected PDFMemoryMode memoryMode = PDFMemoryMode.getConfigured();
+
     // ========================================
     // Constructors
     // ========================================
@@ -63,6 +63,13 @@ public class PDFPageOrdering {
 
     }
 
+    /**
+     * @param memoryMode where PDFBox keeps the streams, null => from configuration (see {@link PDFMemoryMode})
+     */
+    public void setMemoryMode(PDFMemoryMode memoryMode) {
+        this.memoryMode = memoryMode == null ? PDFMemoryMode.getConfigured() : memoryMode;
+    }
+
     // ========================================
     // Order pages
     // ========================================
@@ -88,9 +95,11 @@ public class PDFPageOrdering {
             throw new IllegalArgumentException("pagesOrder must not be null or empty");
         }
 
-        try (CloseableFile source = pdfBlob.getCloseableFile();
-                PDDocument sourcePdf = Loader.loadPDF(source.getFile());
-                PDDocument reordered = new PDDocument()) {
+        // Source and result share the heap ceiling of the operation
+        long maxHeapBytes = PDFMemoryMode.getConfiguredMaxHeap() / 2;
+        try (PDFSource source = PDFSource.open(pdfBlob);
+                PDDocument sourcePdf = source.load(memoryMode.getStreamCache(maxHeapBytes));
+                PDDocument reordered = new PDDocument(memoryMode.getStreamCache(maxHeapBytes))) {
 
             int pageCount = sourcePdf.getNumberOfPages();
             if (pageCount == 0) {
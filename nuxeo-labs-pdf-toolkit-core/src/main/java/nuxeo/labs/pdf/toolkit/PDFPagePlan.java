@@ -0,0 +1,253 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageTree;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * Applies a page plan to a PDF in a single load/save: the ordered list of the pages of the result, each one possibly
+ * rotated. Extracting, removing, reordering and rotating pages, in any combination, then cost one pass.
+ * <br>
+ * The plan is a JSON array, each entry being a source page ref:
+ *
+ * <pre>
+ * {@code
+ * [
+ *   {"page": 3},
+ *   {"page": 1, "rotation": 90},
+ *   {"page": 2, "delete": true},
+ *   4
+ * ]
+ * }
+ * </pre>
+ *
+ * <ul>
+ * <li>page: 1-based number of the page in the source PDF, required. A number alone is a shortcut for {"page": n}</li>
+ * <li>rotation: optional, clockwise, a multiple of 90, added to the current rotation of the page</li>
+ * <li>delete: optional, the page is not in the result. Same as not listing it, lets the caller send all the
+ * pages</li>
+ * </ul>
+ * A page can be listed only once. Pages are moved in the page tree of the source document, so its catalog
+ * (outline, metadata, ...) is kept, as when removing pages.
+ */
+public class PDFPagePlan {
+
+    protected Blob pdfBlob;
+
+    protected PDFMemoryMode memoryMode = PDFMemoryMode.getConfigured();
+
+    /**
+     * A page of the source in the plan
+     */
+    public static class PageRef {
+
+        protected final int page;
+
+        protected final int rotation;
+
+        protected final boolean delete;
+
+        public PageRef(int page, int rotation, boolean delete) {
+            this.page = page;
+            this.rotation = rotation;
+            this.delete = delete;
+        }
+
+        public int getPage() {
+            return page;
+        }
+
+        public int getRotation() {
+            return rotation;
+        }
+
+        public boolean isDelete() {
+            return delete;
+        }
+    }
+
+    // ========================================
+    // Constructors
+    // ========================================
+    public PDFPagePlan(DocumentModel doc) {
+
+        this(doc, null);
+
+    }
+
+    public PDFPagePlan(DocumentModel doc, String xpath) {
+
+        if (StringUtils.isBlank(xpath)) {
+            xpath = "file:content";
+        }
+
+        pdfBlob = (Blob) doc.getPropertyValue(xpath);
+
+    }
+
+    public PDFPagePlan(Blob b) {
+
+        pdfBlob = b;
+
+    }
+
+    /**
+     * @param memoryMode where PDFBox keeps the streams, null => from configuration (see {@link PDFMemoryMode})
+     */
+    public void setMemoryMode(PDFMemoryMode memoryMode) {
+        this.memoryMode = memoryMode == null ? PDFMemoryMode.getConfigured() : memoryMode;
+    }
+
+    // ========================================
+    // Plan
+    // ========================================
+    /**
+     * @param planJsonStr JSON array of page refs, see the class documentation
+     * @return the page refs
+     * @throws IllegalArgumentException if the plan is malformed
+     */
+    public static List<PageRef> parsePlan(String planJsonStr) {
+
+        if (StringUtils.isBlank(planJsonStr)) {
+            throw new IllegalArgumentException("The plan must not be null or blank");
+        }
+
+        List<PageRef> plan = new ArrayList<>();
+        JSONArray array = new JSONArray(planJsonStr);
+        for (int i = 0; i < array.length(); i++) {
+            Object entry = array.get(i);
+            if (entry instanceof JSONObject) {
+                JSONObject ref = (JSONObject) entry;
+                if (!ref.has("page")) {
+                    throw new IllegalArgumentException("Missing \"page\" in the plan entry " + ref);
+                }
+                plan.add(new PageRef(ref.getInt("page"), ref.optInt("rotation", 0), ref.optBoolean("delete", false)));
+            } else {
+                plan.add(new PageRef(array.getInt(i), 0, false));
+            }
+        }
+
+        return plan;
+    }
+
+    /**
+     * @param planJsonStr JSON array of page refs, see the class documentation
+     * @return a Blob containing the resulting PDF (original is untouched). Blob file name is {originalName}-edited.pdf
+     * @throws NuxeoException if reading or writing the PDF fails
+     * @throws IllegalArgumentException if the plan is malformed
+     */
+    public Blob applyPlan(String planJsonStr) {
+        return applyPlan(parsePlan(planJsonStr));
+    }
+
+    /**
+     * @param plan
+     * @return a Blob containing the resulting PDF (original is untouched). Blob file name is {originalName}-edited.pdf
+     * @throws NuxeoException if reading or writing the PDF fails
+     * @throws IllegalArgumentException if the plan is malformed
+     */
+    public Blob applyPlan(List<PageRef> plan) {
+
+        if (plan == null || plan.isEmpty()) {
+            throw new IllegalArgumentException("The plan must not be null or empty");
+        }
+
+        try (PDFSource source = PDFSource.open(pdfBlob);
+                PDDocument document = source.load(memoryMode.getStreamCache(PDFMemoryMode.getConfiguredMaxHeap()))) {
+
+            PDPageTree pageTree = document.getPages();
+            int pageCount = pageTree.getCount();
+            if (pageCount == 0) {
+                throw new IllegalArgumentException("Source PDF has no pages");
+            }
+
+            validatePlan(plan, pageCount);
+
+            List<PDPage> pages = new ArrayList<>();
+            for (PageRef ref : plan) {
+                if (ref.isDelete()) {
+                    continue;
+                }
+                PDPage page = pageTree.get(ref.getPage() - 1);
+                // The page moves to the root of the page tree: make the attributes inherited from the intermediate
+                // nodes its own
+                page.setResources(page.getResources());
+                page.setMediaBox(page.getMediaBox());
+                page.setCropBox(page.getCropBox());
+                page.setRotation(Math.floorMod(page.getRotation() + ref.getRotation(), 360));
+                pages.add(page);
+            }
+            if (pages.isEmpty()) {
+                throw new IllegalArgumentException("The plan deletes all the pages");
+            }
+
+            COSDictionary root = pageTree.getCOSObject();
+            COSArray kids = new COSArray();
+            for (PDPage page : pages) {
+                page.getCOSObject().setItem(COSName.PARENT, root);
+                kids.add(page);
+            }
+            root.setItem(COSName.KIDS, kids);
+            root.setInt(COSName.COUNT, pages.size());
+
+            return PDFTools.saveToFileBlob(pdfBlob, document, "pdf", "-edited");
+
+        } catch (IOException e) {
+            throw new NuxeoException("Failed to apply the page plan to the PDF", e);
+        }
+    }
+
+    protected void validatePlan(List<PageRef> plan, int pageCount) {
+
+        Set<Integer> seen = new HashSet<>();
+        for (PageRef ref : plan) {
+            if (ref.getPage() < 1 || ref.getPage() > pageCount) {
+                throw new IllegalArgumentException(
+                        "Invalid page number in the plan: " + ref.getPage() + " (must be between 1 and " + pageCount
+                                + ")");
+            }
+            if (!seen.add(ref.getPage())) {
+                throw new IllegalArgumentException("Page " + ref.getPage() + " is listed more than once in the plan");
+            }
+            if (ref.getRotation() % 90 != 0) {
+                throw new IllegalArgumentException(
+                        "Invalid rotation for page " + ref.getPage() + ": " + ref.getRotation()
+                                + " (must be a multiple of 90)");
+            }
+        }
+    }
+
+}
@@ -22,10 +22,8 @@ import java.io.IOException;
 import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.nuxeo.ecm.core.api.Blob;
-import org.nuxeo.ecm.core.api.CloseableFile;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.NuxeoException;
 
@@ -36,6 +34,8 @@ public class PDFPageRemover {
 
     protected Blob pdfBlob;
 
+    protected PDFMemoryMode memoryMode = PDFMemoryMode.getConfigured();
+
     // ========================================
     // Constructors
     // ========================================
@@ -61,6 +61,13 @@ public class PDFPageRemover {
 
     }
 
+    /**
+     * @param memoryMode where PDFBox keeps the streams, null => from configuration (see {@link PDFMemoryMode})
+     */
+    public void setMemoryMode(PDFMemoryMode memoryMode) {
+        this.memoryMode = memoryMode == null ? PDFMemoryMode.getConfigured() : memoryMode;
+    }
+
     // ========================================
     // Remove pages
     // ========================================
@@ -84,11 +91,12 @@ public class PDFPageRemover {
             throw new IllegalArgumentException("Range must not be null or blank");
         }
 
-        try (CloseableFile source = pdfBlob.getCloseableFile();
-                PDDocument document = Loader.loadPDF(source.getFile());
-                PDDocument reordered = PDFTools.cloneDocument(document)) {
-            
-            int pageCount = reordered.getNumberOfPages();
+        // Pages are removed in place: a single load, and the document catalog (outline, metadata, ...) is kept. The
+        // result is written while saving, the source being read from its file.
+        try (PDFSource source = PDFSource.open(pdfBlob);
+                PDDocument document = source.load(memoryMode.getStreamCache(PDFMemoryMode.getConfiguredMaxHeap()))) {
+
+            int pageCount = document.getNumberOfPages();
             if (pageCount == 0) {
                 throw new IllegalArgumentException("Source PDF has no pages");
             }
@@ -103,12 +111,12 @@ public class PDFPageRemover {
                          .sorted((a, b) -> Integer.compare(b, a)) // descending
                          .forEach(pageNumber -> {
                              int zeroBased = pageNumber - 1;// Parameter starts at 1, PDFBox at 0.
-                             if (zeroBased >= 0 && zeroBased < reordered.getNumberOfPages()) {
-                                 reordered.removePage(zeroBased);
+                             if (zeroBased >= 0 && zeroBased < document.getNumberOfPages()) {
+                                 document.removePage(zeroBased);
                              }
                          });
 
-            Blob finalBlob = PDFTools.saveToFileBlob(pdfBlob, reordered, "pdf-after-removed-pages", "-pages-removed");
+            Blob finalBlob = PDFTools.saveToFileBlob(pdfBlob, document, "pdf-after-removed-pages", "-pages-removed");
 
             return finalBlob;
         } catch (IOException e) {
@@ -0,0 +1,276 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.RenderDestination;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Deep-zoom preview of a page: the page is split in tiles (256x256 by default), at several zoom levels.
+ * <br>
+ * At level 0, the whole page fits in one tile. Each level doubles the resolution, up to the max dpi
+ * ({@code nuxeo.pdftoolkit.tiles.maxDpi}, default 600). A tile is rendered alone (only its clip region of the page, at
+ * the scale of its level) and cached separately, so zooming in a corner of a big plan renders a few tiles, never the
+ * full page at high resolution.
+ * <br>
+ * Use {@link #getTileInfo(int)} to get the dimensions of the levels, then {@link #getTile(int, int, int, int)}.
+ */
+public class PDFPageTiles {
+
+    public static final String MAX_DPI_PROPERTY = "nuxeo.pdftoolkit.tiles.maxDpi";
+
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    public static final int MIN_TILE_SIZE = 64;
+
+    public static final int MAX_TILE_SIZE = 1024;
+
+    public static final int DEFAULT_MAX_DPI = 600;
+
+    protected Blob pdfBlob;
+
+    protected int tileSize;
+
+    protected int maxDpi;
+
+    protected PDFImageEncoder encoder = new PDFImageEncoder();
+
+    public PDFPageTiles(Blob pdfBlob) {
+        this(pdfBlob, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * @param pdfBlob
+     * @param tileSize if <= 0, DEFAULT_TILE_SIZE applies. Else, bound to MIN_TILE_SIZE-MAX_TILE_SIZE
+     */
+    public PDFPageTiles(Blob pdfBlob, int tileSize) {
+
+        this.pdfBlob = pdfBlob;
+        this.tileSize = tileSize > 0 ? Math.min(Math.max(tileSize, MIN_TILE_SIZE), MAX_TILE_SIZE)
+                : DEFAULT_TILE_SIZE;
+
+        maxDpi = DEFAULT_MAX_DPI;
+        String value = Framework.getProperty(MAX_DPI_PROPERTY);
+        if (StringUtils.isNotBlank(value)) {
+            try {
+                maxDpi = Math.max(Integer.parseInt(value.trim()), 1);
+            } catch (NumberFormatException e) {
+                // Ignore, use default
+            }
+        }
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Return the description of the zoom levels of the page:
+     *
+     * <pre>
+     * {
+     *   "page": 1,
+     *   "tileSize": 256,
+     *   "levels": [{"level": 0, "scale": 0.32, "width": 198, "height": 256, "columns": 1, "rows": 1}, ...]
+     * }
+     * </pre>
+     *
+     * scale is the PDF scale of the level (1 = 72 DPI).
+     *
+     * @param pageNum 1-based
+     * @return the description
+     */
+    public JSONObject getTileInfo(int pageNum) {
+
+        try (PDFDocumentCache.Lease lease = PDFDocumentCache.getInstance().acquire(pdfBlob)) {
+
+            PDPage page = getPage(lease.getDocument(), pageNum);
+
+            JSONArray levels = new JSONArray();
+            int levelCount = getLevelCount(page);
+            for (int level = 0; level < levelCount; level++) {
+                float scale = getScale(page, level);
+                int[] size = getLevelSize(page, scale);
+                JSONObject levelInfo = new JSONObject();
+                levelInfo.put("level", level);
+                levelInfo.put("scale", scale);
+                levelInfo.put("width", size[0]);
+                levelInfo.put("height", size[1]);
+                levelInfo.put("columns", (size[0] + tileSize - 1) / tileSize);
+                levelInfo.put("rows", (size[1] + tileSize - 1) / tileSize);
+                levels.put(levelInfo);
+            }
+
+            JSONObject info = new JSONObject();
+            info.put("page", pageNum);
+            info.put("tileSize", tileSize);
+            info.put("levels", levels);
+            return info;
+
+        } catch (IOException e) {
+            throw new NuxeoException("Failed to read the page", e);
+        }
+    }
+
+    /**
+     * Return the JPEG tile. Tiles on the right/bottom edges are smaller than tileSize.
+     *
+     * @param pageNum 1-based
+     * @param level 0-based zoom level
+     * @param x 0-based column
+     * @param y 0-based row
+     * @return the tile
+     */
+    public Blob getTile(int pageNum, int level, int x, int y) {
+
+        String documentKey = PDFToolkitCache.getDocumentKey(pdfBlob);
+        if (documentKey == null) {
+            return renderTile(pageNum, level, x, y, null, null);
+        }
+
+        PDFToolkitCache cache = new PDFToolkitCache();
+        String cacheKey = PDFToolkitCache.getPageKey(documentKey, pageNum,
+                "tile" + tileSize + "-" + maxDpi + "-z" + level + "-" + x + "-" + y);
+        Blob cached = cache.getBlob(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        return cache.renderOnce(cacheKey + "-render", () -> {
+            Blob blob = cache.getBlob(cacheKey);
+            return blob != null ? blob : renderTile(pageNum, level, x, y, cache, cacheKey);
+        });
+    }
+
+    protected Blob renderTile(int pageNum, int level, int x, int y, PDFToolkitCache cache, String cacheKey) {
+
+        try (PDFDocumentCache.Lease lease = PDFDocumentCache.getInstance().acquire(pdfBlob)) {
+
+            PDDocument document = lease.getDocument();
+            PDPage page = getPage(document, pageNum);
+
+            int levelCount = getLevelCount(page);
+            if (level < 0 || level >= levelCount) {
+                throw new IllegalArgumentException(
+                        "Invalid level " + level + ", page " + pageNum + " has " + levelCount + " levels");
+            }
+            float scale = getScale(page, level);
+            int[] size = getLevelSize(page, scale);
+            int left = x * tileSize;
+            int top = y * tileSize;
+            if (x < 0 || y < 0 || left >= size[0] || top >= size[1]) {
+                throw new IllegalArgumentException("Invalid tile " + x + "/" + y + " for level " + level);
+            }
+            int tileWidth = Math.min(tileSize, size[0] - left);
+            int tileHeight = Math.min(tileSize, size[1] - top);
+
+            BufferedImage tile = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = tile.createGraphics();
+            try {
+                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+                g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+                g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g2d.setBackground(Color.WHITE);
+                g2d.clearRect(0, 0, tileWidth, tileHeight);
+                // Move the page so the tile is at the origin, only this region is rasterized
+                g2d.translate(-left, -top);
+                g2d.clipRect(left, top, tileWidth, tileHeight);
+
+                // Same page budget as the thumbnails, a tile of a very complex page fails instead of holding the thread
+                PDFBudgetedRenderer renderer = new PDFBudgetedRenderer(document);
+                long pageTimeoutMs = PDFToImages.getConfiguredTimeout(PDFToImages.PAGE_TIMEOUT_PROPERTY,
+                        PDFToImages.DEFAULT_PAGE_TIMEOUT);
+                if (pageTimeoutMs > 0) {
+                    renderer.setDeadline(System.currentTimeMillis() + pageTimeoutMs);
+                }
+                renderer.renderPageToGraphics(pageNum - 1, g2d, scale, scale, RenderDestination.VIEW);
+            } finally {
+                g2d.dispose();
+            }
+
+            String fileNameNoExt = PDFTools.getFileNameNoExtension(pdfBlob, "pdf-img",
+                    "-p" + pageNum + "-z" + level + "-" + x + "-" + y);
+            Blob result = encoder.toBlob(tile, "jpg", fileNameNoExt, ".jpg", "image/jpeg");
+
+            if (cache != null) {
+                cache.putBlob(cacheKey, result);
+            }
+
+            return result;
+
+        } catch (IOException e) {
+            throw new NuxeoException("Failed to render the tile", e);
+        }
+    }
+
+    protected PDPage getPage(PDDocument document, int pageNum) {
+
+        PDFTools.validatePageNumber(pageNum, document.getNumberOfPages(), "" + pageNum);
+        return document.getPage(pageNum - 1);
+    }
+
+    /**
+     * Level 0: the page fits in one tile. Then each level doubles the scale, up to maxDpi (the last level can be less
+     * than twice the previous one)
+     */
+    protected int getLevelCount(PDPage page) {
+
+        float baseScale = getScale(page, 0);
+        float maxScale = maxDpi / 72f;
+        int count = 1;
+        while (baseScale * (1 << (count - 1)) < maxScale && count < 31) {
+            count++;
+        }
+        return count;
+    }
+
+    protected float getScale(PDPage page, int level) {
+
+        float baseScale = PDFToImages.getScaleToFit(page, tileSize, tileSize, maxDpi);
+        return Math.min(baseScale * (1 << level), maxDpi / 72f);
+    }
+
+    // Same computation as PDFRenderer
+    protected static int[] getLevelSize(PDPage page, float scale) {
+
+        PDRectangle cropBox = page.getCropBox();
+        int width = (int) Math.max(Math.floor(cropBox.getWidth() * scale), 1);
+        int height = (int) Math.max(Math.floor(cropBox.getHeight() * scale), 1);
+        if (page.getRotation() % 180 != 0) {
+            return new int[] { height, width };
+        }
+        return new int[] { width, height };
+    }
+
+}
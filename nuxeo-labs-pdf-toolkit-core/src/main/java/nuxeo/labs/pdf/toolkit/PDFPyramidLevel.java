@@ -0,0 +1,160 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.commons.lang3.StringUtils;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * One output size of a page pyramid (see {@link PDFToImages#createPyramid(List)}): max width, max height and max
+ * dpi.
+ * <br>
+ * String format is "{width}x{height}@{dpi}", or "{size}@{dpi}" for a square box. "@{dpi}" is optional (default:
+ * {@link PDFToImages#DEFAULT_DPI}).
+ */
+public class PDFPyramidLevel {
+
+    /**
+     * Comma separated list of levels, rendered together when the pyramid mode is used.
+     */
+    public static final String LEVELS_PROPERTY = "nuxeo.pdftoolkit.pyramid.levels";
+
+    // Grid thumbnails (small and default) + previews
+    public static final String DEFAULT_LEVELS = "128x128@" + PDFToImages.DEFAULT_DPI + ","
+            + PDFToImages.DEFAULT_THUMBNAIL_SIZE + "x" + PDFToImages.DEFAULT_THUMBNAIL_SIZE + "@"
+            + PDFToImages.DEFAULT_DPI + "," + PDFToImages.PREVIEW_PAGE_MAX_SIZE + "x"
+            + PDFToImages.PREVIEW_PAGE_MAX_SIZE + "@" + PDFToImages.PREVIEW_DPI;
+
+    protected final int width;
+
+    protected final int height;
+
+    protected final int dpi;
+
+    public PDFPyramidLevel(int width, int height, int dpi) {
+
+        if (width <= 0 || height <= 0 || dpi <= 0) {
+            throw new IllegalArgumentException(
+                    "Invalid pyramid level: " + width + "x" + height + "@" + dpi + ", values must be > 0");
+        }
+        this.width = width;
+        this.height = height;
+        this.dpi = dpi;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getDpi() {
+        return dpi;
+    }
+
+    /**
+     * @param value "{width}x{height}@{dpi}", "{size}@{dpi}", "{width}x{height}" or "{size}"
+     * @return the level
+     */
+    public static PDFPyramidLevel parse(String value) {
+
+        if (StringUtils.isBlank(value)) {
+            throw new IllegalArgumentException("Empty pyramid level");
+        }
+
+        String str = value.trim();
+        int levelDpi = PDFToImages.DEFAULT_DPI;
+        try {
+            int idx = str.indexOf('@');
+            if (idx >= 0) {
+                levelDpi = Integer.parseInt(str.substring(idx + 1).trim());
+                str = str.substring(0, idx).trim();
+            }
+            idx = str.indexOf('x');
+            if (idx < 0) {
+                int size = Integer.parseInt(str);
+                return new PDFPyramidLevel(size, size, levelDpi);
+            }
+            return new PDFPyramidLevel(Integer.parseInt(str.substring(0, idx).trim()),
+                    Integer.parseInt(str.substring(idx + 1).trim()), levelDpi);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed pyramid level: " + value, e);
+        }
+    }
+
+    /**
+     * @param value comma separated list of levels
+     * @return the levels, in the same order
+     */
+    public static List<PDFPyramidLevel> parseList(String value) {
+
+        List<PDFPyramidLevel> levels = new ArrayList<>();
+        if (StringUtils.isNotBlank(value)) {
+            for (String level : value.split(",")) {
+                if (StringUtils.isNotBlank(level)) {
+                    levels.add(parse(level));
+                }
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * @return the levels set by {@code nuxeo.pdftoolkit.pyramid.levels}, or the default ones (128, 512 and the
+     *         preview)
+     */
+    public static List<PDFPyramidLevel> getConfiguredLevels() {
+
+        String value = Framework.getProperty(LEVELS_PROPERTY);
+        if (StringUtils.isBlank(value)) {
+            value = DEFAULT_LEVELS;
+        }
+        return parseList(value);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof PDFPyramidLevel)) {
+            return false;
+        }
+        PDFPyramidLevel other = (PDFPyramidLevel) obj;
+        return width == other.width && height == other.height && dpi == other.dpi;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(width, height, dpi);
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + "@" + dpi;
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import java.io.IOException;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadView;
+
+/**
+ * A PDFBox reader of a {@link PDFRangedSource}: reads the blocks of the source, fetching the missing ones. Not thread
+ * safe (like every RandomAccessRead), each thread creates its own reader (see {@link PDFSource#createRead()}), the
+ * blocks being shared.
+ * <br>
+ * Consecutive blocks double the number of blocks fetched by the next request (up to
+ * {@link PDFRangedSource#MAX_READ_AHEAD_BLOCKS}), so a big stream doesn't cost one request per block.
+ */
+public class PDFRangedRandomAccessRead implements RandomAccessRead {
+
+    protected final PDFRangedSource source;
+
+    protected final long length;
+
+    protected final int blockSize;
+
+    protected long position = 0;
+
+    protected long currentIndex = -1;
+
+    protected byte[] current;
+
+    protected int readAhead = 1;
+
+    protected boolean closed = false;
+
+    public PDFRangedRandomAccessRead(PDFRangedSource source) {
+        this.source = source;
+        this.length = source.length();
+        this.blockSize = source.getBlockSize();
+    }
+
+    protected byte[] getBlock(long index) throws IOException {
+
+        if (index != currentIndex) {
+            readAhead = index == currentIndex + 1 ? Math.min(readAhead * 2, PDFRangedSource.MAX_READ_AHEAD_BLOCKS)
+                    : 1;
+            current = source.getBlock(index, readAhead);
+            currentIndex = index;
+        }
+        return current;
+    }
+
+    protected void checkClosed() throws IOException {
+        if (closed) {
+            throw new IOException("RandomAccessRead already closed");
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+
+        checkClosed();
+        if (position >= length) {
+            return -1;
+        }
+        byte[] block = getBlock(position / blockSize);
+        int value = block[(int) (position % blockSize)] & 0xFF;
+        position++;
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+
+        checkClosed();
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= length) {
+            return -1;
+        }
+
+        int total = 0;
+        while (total < len && position < length) {
+            byte[] block = getBlock(position / blockSize);
+            int inBlock = (int) (position % blockSize);
+            int n = Math.min(len - total, block.length - inBlock);
+            System.arraycopy(block, inBlock, b, off + total, n);
+            total += n;
+            position += n;
+        }
+        return total;
+    }
+
+    @Override
+    public long getPosition() throws IOException {
+        checkClosed();
+        return position;
+    }
+
+    @Override
+    public void seek(long newPosition) throws IOException {
+
+        checkClosed();
+        if (newPosition < 0) {
+            throw new IOException("Invalid position " + newPosition);
+        }
+        position = Math.min(newPosition, length);
+    }
+
+    @Override
+    public long length() throws IOException {
+        checkClosed();
+        return length;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public boolean isEOF() throws IOException {
+        checkClosed();
+        return position >= length;
+    }
+
+    @Override
+    public RandomAccessReadView createView(long startPosition, long streamLength) throws IOException {
+        checkClosed();
+        return new RandomAccessReadView(this, startPosition, streamLength);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        current = null;
+    }
+
+}
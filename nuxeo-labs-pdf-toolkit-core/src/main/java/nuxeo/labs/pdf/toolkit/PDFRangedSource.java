@@ -0,0 +1,335 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.blob.BlobManager;
+import org.nuxeo.ecm.core.blob.ManagedBlob;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * A remote PDF read by HTTP ranges, using the direct download URL of its blob provider (S3 pre-signed URL for
+ * example), so PDFBox reads the trailer, the xref, the page tree and the objects of the pages it renders without
+ * downloading the whole file.
+ * <br>
+ * The bytes are fetched by blocks ({@code nuxeo.pdftoolkit.rangedreads.blockSizeKB}, default 64) kept in a least
+ * recently used cache ({@code nuxeo.pdftoolkit.rangedreads.cacheSizeMB}, default 16) shared by all the readers of the
+ * source. Sequential reads (a big image, a font) fetch several blocks per request.
+ * <br>
+ * Used only if {@code nuxeo.pdftoolkit.rangedreads.enabled} (default false), the provider returns an absolute http(s)
+ * URL for direct download, and the server answers a range request with a 206 status. Else, {@link #open(Blob)}
+ * returns null and the caller downloads the file.
+ */
+public class PDFRangedSource extends PDFSource {
+
+    public static final String ENABLED_PROPERTY = "nuxeo.pdftoolkit.rangedreads.enabled";
+
+    public static final String BLOCK_SIZE_PROPERTY = "nuxeo.pdftoolkit.rangedreads.blockSizeKB";
+
+    public static final String CACHE_SIZE_PROPERTY = "nuxeo.pdftoolkit.rangedreads.cacheSizeMB";
+
+    public static final int DEFAULT_BLOCK_SIZE_KB = 64;
+
+    public static final int DEFAULT_CACHE_SIZE_MB = 16;
+
+    // Max. number of blocks fetched in one request by sequential reads
+    public static final int MAX_READ_AHEAD_BLOCKS = 16;
+
+    protected static final Duration TIMEOUT = Duration.ofSeconds(60);
+
+    protected static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
+                                                              .followRedirects(HttpClient.Redirect.NORMAL)
+                                                              .connectTimeout(TIMEOUT)
+                                                              .build();
+
+    // For all the sources
+    protected static final AtomicLong REQUESTS = new AtomicLong();
+
+    protected static final AtomicLong BYTES = new AtomicLong();
+
+    protected static final AtomicLong HITS = new AtomicLong();
+
+    protected final Blob blob;
+
+    protected final long length;
+
+    protected final int blockSize;
+
+    protected final int maxBlocks;
+
+    // Replaced under uriLock when it expires, see refreshURI()
+    protected volatile URI uri;
+
+    // Only the readers that got an expired URI wait for the provider, not the ones reading cached blocks
+    protected final Object uriLock = new Object();
+
+    // Access order => least recently used first
+    protected final LinkedHashMap<Long, byte[]> blocks = new LinkedHashMap<>(64, 0.75f, true);
+
+    protected PDFRangedSource(Blob blob, URI uri, int blockSize, int maxBlocks) {
+        this.blob = blob;
+        this.uri = uri;
+        this.length = blob.getLength();
+        this.blockSize = blockSize;
+        this.maxBlocks = maxBlocks;
+    }
+
+    /**
+     * @param blob
+     * @return the source, null if the blob can't be read by ranges
+     * @throws IOException
+     */
+    public static PDFRangedSource open(Blob blob) throws IOException {
+
+        if (!Boolean.parseBoolean(Framework.getProperty(ENABLED_PROPERTY, "false")) || !(blob instanceof ManagedBlob)
+                || blob.getLength() <= 0) {
+            return null;
+        }
+
+        URI uri = getURI(blob);
+        if (uri == null) {
+            return null;
+        }
+
+        int blockSize = Math.max(getIntProperty(BLOCK_SIZE_PROPERTY, DEFAULT_BLOCK_SIZE_KB), 1) * 1024;
+        long cacheSize = Math.max(getIntProperty(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE_MB), 1) * 1024L * 1024L;
+        int maxBlocks = (int) Math.max(cacheSize / blockSize, MAX_READ_AHEAD_BLOCKS);
+        PDFRangedSource source = new PDFRangedSource(blob, uri, blockSize, maxBlocks);
+
+        // Checks the server honors ranges, and gets the trailer, which PDFBox reads first
+        if (source.fetch(source.getLastBlock(), 1) == null) {
+            return null;
+        }
+        return source;
+    }
+
+    protected static URI getURI(Blob blob) throws IOException {
+
+        URI uri = Framework.getService(BlobManager.class).getURI(blob, BlobManager.UsageHint.DOWNLOAD, null);
+        if (uri == null || !uri.isAbsolute()
+                || !("http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme()))) {
+            return null;
+        }
+        return uri;
+    }
+
+    protected static int getIntProperty(String name, int defaultValue) {
+
+        String value = Framework.getProperty(name);
+        if (StringUtils.isNotBlank(value)) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                // Ignore, use default
+            }
+        }
+        return defaultValue;
+    }
+
+    protected long getLastBlock() {
+        return (length - 1) / blockSize;
+    }
+
+    /**
+     * @param index
+     * @param readAhead number of blocks to fetch if the block is not cached
+     * @return the block (the last one may be shorter than the block size)
+     * @throws IOException
+     */
+    protected byte[] getBlock(long index, int readAhead) throws IOException {
+
+        int count;
+        synchronized (blocks) {
+            byte[] block = blocks.get(index);
+            if (block != null) {
+                HITS.incrementAndGet();
+                return block;
+            }
+            // Don't fetch again the blocks already cached
+            count = (int) Math.min(Math.max(readAhead, 1), getLastBlock() - index + 1);
+            for (int i = 1; i < count; i++) {
+                if (blocks.containsKey(index + i)) {
+                    count = i;
+                    break;
+                }
+            }
+        }
+
+        byte[] block = fetch(index, count);
+        if (block == null) {
+            throw new IOException("The server no longer accepts range requests for " + blob.getFilename());
+        }
+        return block;
+    }
+
+    /**
+     * Get count blocks in one request, and cache them.
+     *
+     * @param firstBlock
+     * @param count
+     * @return the first block, null if the server ignored the range (200 status)
+     * @throws IOException
+     */
+    protected byte[] fetch(long firstBlock, int count) throws IOException {
+
+        long start = firstBlock * blockSize;
+        long end = Math.min(length, (firstBlock + count) * blockSize) - 1;
+
+        URI current = uri;
+        HttpResponse<InputStream> response = send(current, start, end);
+        if (response.statusCode() == 401 || response.statusCode() == 403) {
+            // Pre-signed URL expired while the document was open
+            response.body().close();
+            current = refreshURI(current);
+            if (current == null) {
+                return null;
+            }
+            response = send(current, start, end);
+        }
+
+        byte[] bytes;
+        try (InputStream in = response.body()) {
+            if (response.statusCode() == 200) {
+                return null;
+            }
+            if (response.statusCode() != 206) {
+                throw new IOException(
+                        "HTTP status " + response.statusCode() + " reading a range of " + blob.getFilename());
+            }
+            bytes = in.readNBytes((int) (end - start + 1));
+        }
+        if (bytes.length != end - start + 1) {
+            throw new IOException("Unexpected end of the range read of " + blob.getFilename());
+        }
+        REQUESTS.incrementAndGet();
+        BYTES.addAndGet(bytes.length);
+
+        byte[] first = null;
+        synchronized (blocks) {
+            for (int i = 0; i < count; i++) {
+                int from = i * blockSize;
+                byte[] block = Arrays.copyOfRange(bytes, from, Math.min(from + blockSize, bytes.length));
+                blocks.put(firstBlock + i, block);
+                if (i == 0) {
+                    first = block;
+                }
+            }
+            Iterator<Map.Entry<Long, byte[]>> it = blocks.entrySet().iterator();
+            while (blocks.size() > maxBlocks && it.hasNext()) {
+                Map.Entry<Long, byte[]> eldest = it.next();
+                if (eldest.getKey() < firstBlock || eldest.getKey() >= firstBlock + count) {
+                    it.remove();
+                }
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Get a new URI from the provider, once for all the readers that got the expired one.
+     *
+     * @param expired the URI that was refused
+     * @return the URI to use, null if the provider no longer gives one
+     * @throws IOException
+     */
+    protected URI refreshURI(URI expired) throws IOException {
+
+        synchronized (uriLock) {
+            if (uri == expired) {
+                URI fresh = getURI(blob);
+                if (fresh == null) {
+                    return null;
+                }
+                uri = fresh;
+            }
+            return uri;
+        }
+    }
+
+    protected HttpResponse<InputStream> send(URI uri, long start, long end) throws IOException {
+
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                                         .timeout(TIMEOUT)
+                                         .header("Range", "bytes=" + start + "-" + end)
+                                         .GET()
+                                         .build();
+        try {
+            return HTTP_CLIENT.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + blob.getFilename(), e);
+        }
+    }
+
+    protected int getBlockSize() {
+        return blockSize;
+    }
+
+    @Override
+    public RandomAccessRead createRead() {
+        return new PDFRangedRandomAccessRead(this);
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long getLocalSize() {
+        return (long) maxBlocks * blockSize;
+    }
+
+    @Override
+    public void close() {
+        synchronized (blocks) {
+            blocks.clear();
+        }
+    }
+
+    /**
+     * @return requests, bytes fetched and block cache hits, for all the sources
+     */
+    public static JSONObject getStatistics() {
+
+        JSONObject stats = new JSONObject();
+        stats.put("enabled", Boolean.parseBoolean(Framework.getProperty(ENABLED_PROPERTY, "false")));
+        stats.put("requests", REQUESTS.get());
+        stats.put("bytes", BYTES.get());
+        stats.put("hits", HITS.get());
+        return stats;
+    }
+
+}
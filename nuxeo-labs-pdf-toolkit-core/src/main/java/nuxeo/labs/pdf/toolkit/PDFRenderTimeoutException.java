@@ -0,0 +1,36 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * Thrown by {@link PDFBudgetedRenderer} when the rendering of a page exceeds its time budget.
+ * <br>
+ * A RuntimeException, so it is not caught by the PDFBox operators (which handle IOExceptions) and stops the page.
+ */
+public class PDFRenderTimeoutException extends NuxeoException {
+
+    private static final long serialVersionUID = 1L;
+
+    public PDFRenderTimeoutException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,280 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.pdmodel.DefaultResourceCache;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.documentinterchange.markedcontent.PDPropertyList;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.graphics.pattern.PDAbstractPattern;
+import org.apache.pdfbox.pdmodel.graphics.shading.PDShading;
+import org.apache.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
+import org.json.JSONObject;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * The PDFBox ResourceCache installed on every PDF the toolkit renders (see {@link #install(PDDocument)}): parsed
+ * fonts, color spaces, graphic states, shadings, patterns and XObjects (including decoded images) are parsed once
+ * per document and reused by every page, and, since parsed documents are kept open (see {@link PDFDocumentCache}),
+ * by the next requests on the same PDF.
+ * <br>
+ * Unlike PDFBox's default cache, it is thread safe and bounded: max number of entries
+ * ({@code nuxeo.pdftoolkit.resourcecache.maxEntries}, default 2000) and max estimated size of the decoded images
+ * ({@code nuxeo.pdftoolkit.resourcecache.maxImageSizeMB}, default 64), least recently used entries are evicted
+ * first. Values are held by soft references, so the GC can still reclaim them under memory pressure.
+ * <br>
+ * Resources are keyed by their indirect object, and a PDFBox resource is bound to the document that parsed it (it
+ * reads its streams lazily, and is not thread safe), so the cache is per document, not shared between documents.
+ * {@code nuxeo.pdftoolkit.resourcecache.enabled=false} keeps the PDFBox default.
+ */
+public class PDFResourceCache extends DefaultResourceCache {
+
+    public static final String ENABLED_PROPERTY = "nuxeo.pdftoolkit.resourcecache.enabled";
+
+    public static final String MAX_ENTRIES_PROPERTY = "nuxeo.pdftoolkit.resourcecache.maxEntries";
+
+    public static final String MAX_IMAGE_SIZE_PROPERTY = "nuxeo.pdftoolkit.resourcecache.maxImageSizeMB";
+
+    public static final int DEFAULT_MAX_ENTRIES = 2000;
+
+    public static final int DEFAULT_MAX_IMAGE_SIZE_MB = 64;
+
+    // For all the documents
+    protected static final AtomicLong HITS = new AtomicLong();
+
+    protected static final AtomicLong MISSES = new AtomicLong();
+
+    protected static final AtomicLong EVICTIONS = new AtomicLong();
+
+    protected final int maxEntries;
+
+    protected final long maxImageSizeBytes;
+
+    // Access order => least recently used first
+    protected final LinkedHashMap<COSObject, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    protected long imageSizeBytes = 0;
+
+    protected static class Entry {
+
+        protected final SoftReference<Object> value;
+
+        protected final long size;
+
+        protected Entry(Object value, long size) {
+            this.value = new SoftReference<>(value);
+            this.size = size;
+        }
+    }
+
+    public PDFResourceCache(int maxEntries, long maxImageSizeBytes) {
+        this.maxEntries = maxEntries;
+        this.maxImageSizeBytes = maxImageSizeBytes;
+    }
+
+    /**
+     * Set a new PDFResourceCache (with the configured limits) as the resource cache of the document, unless disabled
+     * by configuration.
+     *
+     * @param document
+     * @return the document
+     */
+    public static PDDocument install(PDDocument document) {
+
+        if (Boolean.parseBoolean(Framework.getProperty(ENABLED_PROPERTY, "true"))) {
+            document.setResourceCache(new PDFResourceCache(getIntProperty(MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES),
+                    getIntProperty(MAX_IMAGE_SIZE_PROPERTY, DEFAULT_MAX_IMAGE_SIZE_MB) * 1024L * 1024L));
+        }
+        return document;
+    }
+
+    protected static int getIntProperty(String name, int defaultValue) {
+
+        String value = Framework.getProperty(name);
+        if (StringUtils.isNotBlank(value)) {
+            try {
+                return Math.max(Integer.parseInt(value.trim()), 0);
+            } catch (NumberFormatException e) {
+                // Ignore, use default
+            }
+        }
+        return defaultValue;
+    }
+
+    protected synchronized <T> T get(COSObject indirect, Class<T> type) {
+
+        Entry entry = entries.get(indirect);
+        Object value = entry == null ? null : entry.value.get();
+        if (type.isInstance(value)) {
+            HITS.incrementAndGet();
+            return type.cast(value);
+        }
+        if (entry != null && value == null) {
+            // Reclaimed by the GC
+            remove(indirect, entry);
+        }
+        MISSES.incrementAndGet();
+        return null;
+    }
+
+    protected synchronized void put(COSObject indirect, Object value, long size) {
+
+        if (indirect == null || value == null || maxEntries == 0 || size > maxImageSizeBytes) {
+            return;
+        }
+
+        Entry previous = entries.put(indirect, new Entry(value, size));
+        if (previous != null) {
+            imageSizeBytes -= previous.size;
+        }
+        imageSizeBytes += size;
+
+        Iterator<Map.Entry<COSObject, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || imageSizeBytes > maxImageSizeBytes) && it.hasNext()) {
+            Map.Entry<COSObject, Entry> eldest = it.next();
+            if (eldest.getKey() == indirect) {
+                continue;
+            }
+            imageSizeBytes -= eldest.getValue().size;
+            it.remove();
+            EVICTIONS.incrementAndGet();
+        }
+    }
+
+    protected void remove(COSObject indirect, Entry entry) {
+        if (entries.remove(indirect, entry)) {
+            imageSizeBytes -= entry.size;
+        }
+    }
+
+    // Estimated size of the decoded image, kept by the PDImageXObject
+    protected static long getSize(PDXObject xobject) {
+
+        if (xobject instanceof PDImageXObject) {
+            PDImageXObject image = (PDImageXObject) xobject;
+            return 4L * Math.max(image.getWidth(), 0) * Math.max(image.getHeight(), 0);
+        }
+        return 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return hits, misses and evictions, for all the documents
+     */
+    public static JSONObject getStatistics() {
+
+        JSONObject stats = new JSONObject();
+        stats.put("enabled", Boolean.parseBoolean(Framework.getProperty(ENABLED_PROPERTY, "true")));
+        stats.put("hits", HITS.get());
+        stats.put("misses", MISSES.get());
+        stats.put("evictions", EVICTIONS.get());
+        stats.put("maxEntries", getIntProperty(MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES));
+        stats.put("maxImageSizeBytes",
+                getIntProperty(MAX_IMAGE_SIZE_PROPERTY, DEFAULT_MAX_IMAGE_SIZE_MB) * 1024L * 1024L);
+        return stats;
+    }
+
+    // ========================================
+    // ResourceCache
+    // ========================================
+    @Override
+    public PDFont getFont(COSObject indirect) {
+        return get(indirect, PDFont.class);
+    }
+
+    @Override
+    public PDColorSpace getColorSpace(COSObject indirect) {
+        return get(indirect, PDColorSpace.class);
+    }
+
+    @Override
+    public PDExtendedGraphicsState getExtGState(COSObject indirect) {
+        return get(indirect, PDExtendedGraphicsState.class);
+    }
+
+    @Override
+    public PDShading getShading(COSObject indirect) {
+        return get(indirect, PDShading.class);
+    }
+
+    @Override
+    public PDAbstractPattern getPattern(COSObject indirect) {
+        return get(indirect, PDAbstractPattern.class);
+    }
+
+    @Override
+    public PDPropertyList getProperties(COSObject indirect) {
+        return get(indirect, PDPropertyList.class);
+    }
+
+    @Override
+    public PDXObject getXObject(COSObject indirect) {
+        return get(indirect, PDXObject.class);
+    }
+
+    @Override
+    public void put(COSObject indirect, PDFont font) {
+        put(indirect, font, 0);
+    }
+
+    @Override
+    public void put(COSObject indirect, PDColorSpace colorSpace) {
+        put(indirect, colorSpace, 0);
+    }
+
+    @Override
+    public void put(COSObject indirect, PDExtendedGraphicsState extGState) {
+        put(indirect, extGState, 0);
+    }
+
+    @Override
+    public void put(COSObject indirect, PDShading shading) {
+        put(indirect, shading, 0);
+    }
+
+    @Override
+    public void put(COSObject indirect, PDAbstractPattern pattern) {
+        put(indirect, pattern, 0);
+    }
+
+    @Override
+    public void put(COSObject indirect, PDPropertyList propertyList) {
+        put(indirect, propertyList, 0);
+    }
+
+    @Override
+    public void put(COSObject indirect, PDXObject xobject) {
+        put(indirect, xobject, getSize(xobject));
+    }
+
+}
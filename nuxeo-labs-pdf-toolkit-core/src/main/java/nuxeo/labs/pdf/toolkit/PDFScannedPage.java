@@ -0,0 +1,303 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import org.apache.pdfbox.pdmodel.graphics.color.PDICCBased;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.util.Matrix;
+
+/**
+ * A scanned page: a page whose content is a single JPEG image covering the page (typical output of scanners).
+ * <br>
+ * The image of such a page can be built directly from the embedded JPEG, without rendering the page: the JPEG is
+ * decoded with source subsampling (only the pixels needed for the target size are kept), or, when it already has the
+ * target size, used as is.
+ * <br>
+ * Anything else on the page (text, vector graphics, annotations, a second image, masks, transparency, an image not
+ * covering the page, a CMYK JPEG, ...) and {@link #detect(PDPage)} returns null: the page is rendered.
+ */
+public class PDFScannedPage {
+
+    // Max gap between the image and the page, as a ratio of the page size
+    protected static final float COVERAGE_TOLERANCE = 0.01f;
+
+    protected final PDImageXObject image;
+
+    protected final int rotation;
+
+    protected PDFScannedPage(PDImageXObject image, int rotation) {
+        this.image = image;
+        this.rotation = rotation;
+    }
+
+    /**
+     * @param page
+     * @return the scanned page, null if the page is not a single full-page JPEG
+     * @throws IOException
+     */
+    public static PDFScannedPage detect(PDPage page) throws IOException {
+
+        int rotation = ((page.getRotation() % 360) + 360) % 360;
+        if (rotation % 90 != 0 || !page.getAnnotations().isEmpty() || !page.hasContents()) {
+            return null;
+        }
+
+        PDResources resources = page.getResources();
+        if (resources == null) {
+            return null;
+        }
+
+        // Only "q", "Q", "cm" and a single "Do". Tokens are read one by one, so any other page (text, paths, ...) is
+        // rejected at its first other operator, without parsing the rest of its content
+        Deque<Matrix> stack = new ArrayDeque<>();
+        Matrix ctm = new Matrix();
+        Matrix imageMatrix = null;
+        PDImageXObject image = null;
+        List<COSBase> operands = new ArrayList<>();
+        PDFStreamParser parser = new PDFStreamParser(page);
+        Object token;
+        while ((token = parser.parseNextToken()) != null) {
+            if (token instanceof COSBase) {
+                // No accepted operator has more than 6 operands
+                if (operands.size() == 6) {
+                    return null;
+                }
+                operands.add((COSBase) token);
+                continue;
+            }
+            if (!(token instanceof Operator)) {
+                return null;
+            }
+            switch (((Operator) token).getName()) {
+            case "q":
+                stack.push(ctm.clone());
+                break;
+            case "Q":
+                if (stack.isEmpty()) {
+                    return null;
+                }
+                ctm = stack.pop();
+                break;
+            case "cm":
+                if (operands.size() != 6) {
+                    return null;
+                }
+                float[] values = new float[6];
+                for (int i = 0; i < 6; i++) {
+                    if (!(operands.get(i) instanceof COSNumber)) {
+                        return null;
+                    }
+                    values[i] = ((COSNumber) operands.get(i)).floatValue();
+                }
+                ctm = new Matrix(values[0], values[1], values[2], values[3], values[4], values[5]).multiply(ctm);
+                break;
+            case "Do":
+                if (image != null || operands.size() != 1 || !(operands.get(0) instanceof COSName)) {
+                    return null;
+                }
+                PDXObject xobject = resources.getXObject((COSName) operands.get(0));
+                if (!(xobject instanceof PDImageXObject)) {
+                    return null;
+                }
+                image = (PDImageXObject) xobject;
+                imageMatrix = ctm.clone();
+                break;
+            default:
+                return null;
+            }
+            operands.clear();
+        }
+
+        if (image == null || !isPlainJpeg(image) || !coversPage(imageMatrix, page.getCropBox())) {
+            return null;
+        }
+
+        return new PDFScannedPage(image, rotation);
+    }
+
+    // DCT only, gray or RGB, no mask, no decode array
+    protected static boolean isPlainJpeg(PDImageXObject image) throws IOException {
+
+        List<COSName> filters = image.getStream().getFilters();
+        if (filters.size() != 1 || !COSName.DCT_DECODE.equals(filters.get(0))) {
+            return false;
+        }
+        if (image.isStencil() || image.getMask() != null || image.getSoftMask() != null || image.getDecode() != null
+                || image.getCOSObject().containsKey(COSName.MASK)) {
+            return false;
+        }
+
+        PDColorSpace colorSpace = image.getColorSpace();
+        if (colorSpace instanceof PDICCBased) {
+            int components = colorSpace.getNumberOfComponents();
+            return components == 1 || components == 3;
+        }
+        return colorSpace instanceof PDDeviceGray || colorSpace instanceof PDDeviceRGB;
+    }
+
+    // Not rotated nor flipped, and covering the CropBox (within COVERAGE_TOLERANCE)
+    protected static boolean coversPage(Matrix matrix, PDRectangle cropBox) {
+
+        if (matrix.getShearX() != 0 || matrix.getShearY() != 0 || matrix.getScaleX() <= 0
+                || matrix.getScaleY() <= 0) {
+            return false;
+        }
+
+        float toleranceX = cropBox.getWidth() * COVERAGE_TOLERANCE;
+        float toleranceY = cropBox.getHeight() * COVERAGE_TOLERANCE;
+        float x0 = matrix.getTranslateX();
+        float y0 = matrix.getTranslateY();
+        float x1 = x0 + matrix.getScaleX();
+        float y1 = y0 + matrix.getScaleY();
+
+        return Math.abs(x0 - cropBox.getLowerLeftX()) <= toleranceX
+                && Math.abs(y0 - cropBox.getLowerLeftY()) <= toleranceY
+                && Math.abs(x1 - cropBox.getUpperRightX()) <= toleranceX
+                && Math.abs(y1 - cropBox.getUpperRightY()) <= toleranceY;
+    }
+
+    public PDImageXObject getImage() {
+        return image;
+    }
+
+    public boolean isGray() {
+        return image.getColorSpace().getNumberOfComponents() == 1;
+    }
+
+    /**
+     * @param width
+     * @param height
+     * @return true if the JPEG, as is, is an image of the page at this size
+     */
+    public boolean hasSize(int width, int height) {
+        return rotation == 0 && Math.abs(image.getWidth() - width) <= 1 && Math.abs(image.getHeight() - height) <= 1;
+    }
+
+    /**
+     * @return the JPEG, as stored in the PDF
+     * @throws IOException
+     */
+    public byte[] getJpegBytes() throws IOException {
+
+        try (InputStream in = image.getCOSObject().createRawInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Decode the JPEG at the size of the page image (page rotation applied). The JPEG reader only keeps 1 pixel out of
+     * n in each direction (n being the largest factor still giving at least the target size), the result is then
+     * resized to the exact target size.
+     *
+     * @param width
+     * @param height
+     * @return the image, RGB or gray
+     * @throws IOException if the JPEG cannot be decoded by ImageIO (the page must then be rendered)
+     */
+    public BufferedImage decode(int width, int height) throws IOException {
+
+        // Size before the page rotation
+        int targetWidth = rotation % 180 == 0 ? width : height;
+        int targetHeight = rotation % 180 == 0 ? height : width;
+
+        BufferedImage img;
+        try (InputStream in = image.getCOSObject().createRawInputStream();
+                ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                throw new IOException("No reader for the JPEG image");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                int subsampling = Math.max(1,
+                        Math.min(reader.getWidth(0) / targetWidth, reader.getHeight(0) / targetHeight));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                img = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        if (img.getWidth() != targetWidth || img.getHeight() != targetHeight) {
+            img = PDFToImages.resize(img, targetWidth, targetHeight);
+        }
+
+        return rotate(img, rotation);
+    }
+
+    protected static BufferedImage rotate(BufferedImage img, int degrees) {
+
+        if (degrees == 0) {
+            return img;
+        }
+
+        int w = img.getWidth();
+        int h = img.getHeight();
+        boolean swap = degrees % 180 != 0;
+        int type = img.getType() == BufferedImage.TYPE_BYTE_GRAY ? BufferedImage.TYPE_BYTE_GRAY
+                : BufferedImage.TYPE_INT_RGB;
+        BufferedImage dst = new BufferedImage(swap ? h : w, swap ? w : h, type);
+
+        // PDF rotation is clockwise
+        AffineTransform transform = new AffineTransform();
+        transform.translate(dst.getWidth() / 2.0, dst.getHeight() / 2.0);
+        transform.rotate(Math.toRadians(degrees));
+        transform.translate(-w / 2.0, -h / 2.0);
+
+        Graphics2D g2d = dst.createGraphics();
+        try {
+            g2d.drawImage(img, transform, null);
+        } finally {
+            g2d.dispose();
+        }
+        return dst;
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
+import org.apache.pdfbox.io.RandomAccessStreamCache.StreamCacheCreateFunction;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CloseableFile;
+
+/**
+ * Gives PDFBox access to the bytes of a PDF blob, without downloading it when possible:
+ * <ul>
+ * <li>The blob has a local file: it is read in place</li>
+ * <li>The blob is stored remotely and its provider gives a direct download URL honoring HTTP ranges (like S3 with
+ * direct download): the PDF is read by ranges, only the parts PDFBox needs (see {@link PDFRangedSource})</li>
+ * <li>Else, the blob is downloaded to a temporary file, deleted on {@link #close()}</li>
+ * </ul>
+ * Usage:
+ *
+ * <pre>
+ * {@code
+ * try (PDFSource source = PDFSource.open(pdfBlob); PDDocument document = source.load()) {
+ *     ...
+ * }
+ * }
+ * </pre>
+ *
+ * A source can be shared by several threads, each one loading its own PDDocument (see {@link #load()}).
+ */
+public abstract class PDFSource implements Closeable {
+
+    /**
+     * @param pdfBlob
+     * @return the source, to be closed once the documents loaded from it are closed
+     * @throws IOException
+     */
+    public static PDFSource open(Blob pdfBlob) throws IOException {
+
+        File file = pdfBlob.getFile();
+        if (file != null) {
+            return new FileSource(file, null);
+        }
+
+        PDFRangedSource ranged = PDFRangedSource.open(pdfBlob);
+        if (ranged != null) {
+            return ranged;
+        }
+
+        // pdfBlob.getFile() could be null, like when the
+        // related file is on S3 for example, we must download it.
+        CloseableFile downloaded = pdfBlob.getCloseableFile();
+        return new FileSource(downloaded.getFile(), downloaded);
+    }
+
+    /**
+     * @return a new reader, positioned at the start of the PDF. Readers are independent, one per thread.
+     * @throws IOException
+     */
+    public abstract RandomAccessRead createRead() throws IOException;
+
+    /**
+     * @return the size of the PDF
+     */
+    public abstract long length();
+
+    /**
+     * @return the bytes held locally for this source (local file size, or max size of the block cache)
+     */
+    public abstract long getLocalSize();
+
+    /**
+     * @return a new PDDocument, reading this source. Closing the document doesn't close the source.
+     * @throws IOException
+     */
+    public PDDocument load() throws IOException {
+        return Loader.loadPDF(createRead());
+    }
+
+    /**
+     * @param streamCache where PDFBox keeps the streams, see {@link PDFMemoryMode}
+     * @return a new PDDocument, reading this source. Closing the document doesn't close the source.
+     * @throws IOException
+     */
+    public PDDocument load(StreamCacheCreateFunction streamCache) throws IOException {
+        return Loader.loadPDF(createRead(), "", null, null, streamCache);
+    }
+
+    /**
+     * A PDF in a local file
+     */
+    protected static class FileSource extends PDFSource {
+
+        protected final File file;
+
+        // Downloaded file, to delete on close. null if the file belongs to the blob
+        protected final CloseableFile downloaded;
+
+        protected FileSource(File file, CloseableFile downloaded) {
+            this.file = file;
+            this.downloaded = downloaded;
+        }
+
+        @Override
+        public RandomAccessRead createRead() throws IOException {
+            return new RandomAccessReadBufferedFile(file);
+        }
+
+        @Override
+        public long length() {
+            return file.length();
+        }
+
+        @Override
+        public long getLocalSize() {
+            return file.length();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (downloaded != null) {
+                downloaded.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import java.io.IOException;
+import java.util.Base64;
+
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * A JPEG image holding the thumbnails of several pages, and its layout:
+ *
+ * <pre>
+ * {
+ *   "width": 2560,
+ *   "height": 1024,
+ *   "pages": [{"page": 1, "x": 0, "y": 0, "width": 396, "height": 512}, ...]
+ * }
+ * </pre>
+ *
+ * See {@link PDFToImages#createSpriteSheets(int, int)}
+ */
+public class PDFSpriteSheet {
+
+    protected final Blob image;
+
+    protected final JSONObject layout;
+
+    public PDFSpriteSheet(Blob image, JSONObject layout) {
+        this.image = image;
+        this.layout = layout;
+    }
+
+    public Blob getImage() {
+        return image;
+    }
+
+    public JSONObject getLayout() {
+        return layout;
+    }
+
+    /**
+     * @return the layout, plus the image as base64 in the "image" property
+     */
+    public JSONObject toJSON() {
+
+        JSONObject json = new JSONObject(layout.toString());
+        try {
+            json.put("image", Base64.getEncoder().encodeToString(image.getByteArray()));
+        } catch (IOException e) {
+            throw new NuxeoException(e);
+        }
+        return json;
+    }
+
+}
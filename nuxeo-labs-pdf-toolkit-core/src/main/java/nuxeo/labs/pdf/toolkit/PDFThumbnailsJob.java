@@ -0,0 +1,240 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+/**
+ * The state of an asynchronous thumbnails job (see {@link nuxeo.labs.pdf.toolkit.workers.PDFThumbnailsJobWork}),
+ * stored in the PDFToolkitCache TransientStore, so it can be read from any node while the job runs.
+ * <br>
+ * The pages are rendered by chunks, the thumbnails of each chunk are stored in their own entry as soon as the chunk
+ * is done: the thumbnails already rendered can be returned while the job runs (partial results).
+ */
+public class PDFThumbnailsJob {
+
+    public static final String STATUS_SCHEDULED = "scheduled";
+
+    public static final String STATUS_RUNNING = "running";
+
+    public static final String STATUS_COMPLETED = "completed";
+
+    public static final String STATUS_FAILED = "failed";
+
+    protected static final String KEY_PREFIX = "job-";
+
+    protected static final String CHUNK_SUFFIX = "-chunk-";
+
+    protected static final String STATUS_PARAMETER = "status";
+
+    protected static final String TOTAL_PAGES_PARAMETER = "totalPages";
+
+    protected static final String PAGES_PARAMETER = "pages";
+
+    protected static final String PAGES_DONE_PARAMETER = "pagesDone";
+
+    protected static final String CHUNKS_PARAMETER = "chunks";
+
+    protected static final String TIMED_OUT_PAGES_PARAMETER = "timedOutPages";
+
+    protected static final String ERROR_PARAMETER = "error";
+
+    protected final String jobId;
+
+    protected final String key;
+
+    protected final PDFToolkitCache cache;
+
+    protected PDFThumbnailsJob(String jobId) {
+        this.jobId = jobId;
+        key = KEY_PREFIX + jobId;
+        cache = new PDFToolkitCache();
+    }
+
+    /**
+     * @return a new job, in the scheduled status
+     */
+    public static PDFThumbnailsJob create() {
+
+        PDFThumbnailsJob job = new PDFThumbnailsJob(UUID.randomUUID().toString());
+        job.put(STATUS_PARAMETER, STATUS_SCHEDULED);
+        return job;
+    }
+
+    /**
+     * @param jobId
+     * @return the job, null if unknown (or expired)
+     */
+    public static PDFThumbnailsJob get(String jobId) {
+
+        if (StringUtils.isBlank(jobId)) {
+            return null;
+        }
+        PDFThumbnailsJob job = new PDFThumbnailsJob(jobId.trim());
+        return job.cache.store.exists(job.key) ? job : null;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getStatus() {
+        return (String) cache.store.getParameter(key, STATUS_PARAMETER);
+    }
+
+    /**
+     * @param pages the pages to render, sorted
+     * @param totalPages the page count of the PDF
+     */
+    public void start(Collection<Integer> pages, int totalPages) {
+
+        put(TOTAL_PAGES_PARAMETER, totalPages);
+        put(PAGES_PARAMETER, PDFTools.toPageRange(pages));
+        put(PAGES_DONE_PARAMETER, 0);
+        put(CHUNKS_PARAMETER, 0);
+        put(STATUS_PARAMETER, STATUS_RUNNING);
+    }
+
+    /**
+     * Store the thumbnails of the next pages
+     *
+     * @param thumbnails
+     * @param timedOutPages all the pages that got a placeholder so far
+     */
+    public void addChunk(List<Blob> thumbnails, Set<Integer> timedOutPages) {
+
+        int chunks = getInt(CHUNKS_PARAMETER);
+        cache.store.putBlobs(key + CHUNK_SUFFIX + chunks, new ArrayList<>(thumbnails));
+        cache.store.setCompleted(key + CHUNK_SUFFIX + chunks, true);
+
+        put(TIMED_OUT_PAGES_PARAMETER, PDFTools.toPageRange(timedOutPages));
+        put(PAGES_DONE_PARAMETER, getInt(PAGES_DONE_PARAMETER) + thumbnails.size());
+        // Last, so a reader never sees a chunk count without its thumbnails
+        put(CHUNKS_PARAMETER, chunks + 1);
+    }
+
+    public void complete() {
+        put(STATUS_PARAMETER, STATUS_COMPLETED);
+        cache.store.setCompleted(key, true);
+    }
+
+    public void fail(String message) {
+        put(ERROR_PARAMETER, StringUtils.defaultString(message, "Unknown error"));
+        put(STATUS_PARAMETER, STATUS_FAILED);
+        cache.store.setCompleted(key, true);
+    }
+
+    /**
+     * @param withThumbnails if true, the thumbnails rendered so far are returned (base64), in page order
+     * @return {"jobId", "status", "totalPages", "pages", "pagesDone", "timedOutPages", "thumbnails", "error"}
+     */
+    public JSONObject toJSON(boolean withThumbnails) {
+        return toJSON(withThumbnails, 0);
+    }
+
+    /**
+     * @param withThumbnails if true, the thumbnails rendered so far are returned (base64), in page order
+     * @param thumbnailsFrom number of thumbnails the caller already has: only the next ones are returned, so polling
+     *            costs the new thumbnails only
+     * @return {"jobId", "status", "totalPages", "pages", "pagesDone", "timedOutPages", "thumbnailsFrom",
+     *         "thumbnails", "error"}
+     */
+    public JSONObject toJSON(boolean withThumbnails, int thumbnailsFrom) {
+
+        JSONObject result = new JSONObject();
+        result.put("jobId", jobId);
+        result.put("status", getStatus());
+
+        int totalPages = getInt(TOTAL_PAGES_PARAMETER);
+        String pages = (String) cache.store.getParameter(key, PAGES_PARAMETER);
+        result.put("totalPages", totalPages);
+        result.put("pages", toJSONArray(pages, totalPages));
+        result.put("pagesDone", getInt(PAGES_DONE_PARAMETER));
+
+        String timedOutPages = (String) cache.store.getParameter(key, TIMED_OUT_PAGES_PARAMETER);
+        result.put("timedOutPages", toJSONArray(timedOutPages, totalPages));
+
+        String error = (String) cache.store.getParameter(key, ERROR_PARAMETER);
+        if (error != null) {
+            result.put("error", error);
+        }
+
+        if (withThumbnails) {
+            int from = Math.max(thumbnailsFrom, 0);
+            JSONArray thumbnails = new JSONArray();
+            int chunks = getInt(CHUNKS_PARAMETER);
+            int index = 0;
+            try {
+                for (int chunk = 0; chunk < chunks; chunk++) {
+                    List<Blob> blobs = cache.store.getBlobs(key + CHUNK_SUFFIX + chunk);
+                    if (blobs == null) {
+                        throw new NuxeoException("Job " + jobId + ": thumbnails expired");
+                    }
+                    // The blobs the caller already has are not read
+                    for (Blob blob : blobs) {
+                        if (index++ >= from) {
+                            thumbnails.put(Base64.getEncoder().encodeToString(blob.getByteArray()));
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new NuxeoException(e);
+            }
+            result.put("thumbnailsFrom", from);
+            result.put("thumbnails", thumbnails);
+        }
+
+        return result;
+    }
+
+    protected static JSONArray toJSONArray(String pageRange, int totalPages) {
+
+        JSONArray pages = new JSONArray();
+        if (StringUtils.isNotBlank(pageRange)) {
+            for (int page : PDFTools.parsePageRange(pageRange, totalPages)) {
+                pages.put(page);
+            }
+        }
+        return pages;
+    }
+
+    protected void put(String parameter, Serializable value) {
+        cache.store.putParameter(key, parameter, value);
+    }
+
+    protected int getInt(String parameter) {
+
+        Serializable value = cache.store.getParameter(key, parameter);
+        return value instanceof Number ? ((Number) value).intValue() : 0;
+    }
+
+}
@@ -18,40 +18,47 @@
  */
 package nuxeo.labs.pdf.toolkit;
 
+import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.rendering.ImageType;
 import org.apache.pdfbox.rendering.PDFRenderer;
 import org.json.JSONArray;
+import org.json.JSONObject;
 import org.nuxeo.ecm.automation.core.util.BlobList;
 import org.nuxeo.ecm.core.api.Blob;
-import org.nuxeo.ecm.core.api.CloseableFile;
+import org.nuxeo.ecm.core.api.Blobs;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.NuxeoException;
-import org.nuxeo.ecm.core.api.blobholder.BlobHolder;
-import org.nuxeo.ecm.core.api.blobholder.SimpleBlobHolder;
-import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
-import org.nuxeo.ecm.core.blob.ManagedBlob;
-import org.nuxeo.ecm.core.convert.api.ConversionService;
-import org.nuxeo.ecm.core.transientstore.api.TransientStore;
-import org.nuxeo.ecm.core.transientstore.api.TransientStoreService;
-import org.nuxeo.ecm.platform.picture.api.ImagingConvertConstants;
+import org.nuxeo.ecm.core.work.api.WorkManager;
 import org.nuxeo.runtime.api.Framework;
 
+import nuxeo.labs.pdf.toolkit.workers.PDFRenderRetryWork;
+
 /**
  * Extract thumbnails or previews
  * 
@@ -64,8 +71,78 @@ public class PDFToImages {
     public static final int DEFAULT_DPI = 512;
     
     public static final int PREVIEW_PAGE_MAX_SIZE = 1024;
+
+    public static final int PREVIEW_DPI = 300;
     
-    public static final String TRANSIENT_STORE_NAME = "PDFToolkitCache";
+    public static final String TRANSIENT_STORE_NAME = PDFToolkitCache.TRANSIENT_STORE_NAME;
+
+    /**
+     * Number of threads used to render the pages of one PDF. 1 (the default) renders on the calling thread. Also the
+     * maximum a caller can ask (see {@link PDFToolkitExecutor#clampParallelism(int)}).
+     */
+    public static final String PARALLELISM_PROPERTY = "nuxeo.pdftoolkit.rendering.parallelism";
+
+    public static final int DEFAULT_PARALLELISM = 1;
+
+    /**
+     * Default color mode of the rendered pages: rgb (the default), gray, binary or auto. See {@link PDFColorMode}.
+     */
+    public static final String COLOR_MODE_PROPERTY = "nuxeo.pdftoolkit.rendering.colorMode";
+
+    // Color mode AUTO: the page is analyzed from a render of this size, without antialiasing
+    protected static final int AUTO_SAMPLE_SIZE = 128;
+
+    // Color mode AUTO: max difference between the R, G and B values of a gray pixel
+    protected static final int AUTO_COLOR_TOLERANCE = 24;
+
+    // Color mode AUTO: above this ratio of mid-tones pixels, the page has continuous tones (photos, shading, ...)
+    protected static final double AUTO_MAX_MIDTONE_RATIO = 0.02;
+
+    // Color mode AUTO: below this scale (72 DPI), black and white pages are rendered in gray, as 1-bit text would not
+    // be readable
+    protected static final float AUTO_BINARY_MIN_SCALE = 1f;
+
+    public static final int DEFAULT_SPRITE_COLUMNS = 10;
+
+    protected static final String SPRITE_LAYOUT_SUFFIX = "-layout";
+
+    /**
+     * Max time (in seconds) to render one page. Past this time, a placeholder is returned for the page and it is
+     * rendered again later, in the background. 0 => no limit.
+     */
+    public static final String PAGE_TIMEOUT_PROPERTY = "nuxeo.pdftoolkit.rendering.pageTimeoutSeconds";
+
+    public static final int DEFAULT_PAGE_TIMEOUT = 20;
+
+    /**
+     * Max time (in seconds) to render all the pages of one request. Past this time, the pages not yet rendered get a
+     * placeholder. 0 => no limit.
+     */
+    public static final String DOCUMENT_TIMEOUT_PROPERTY = "nuxeo.pdftoolkit.rendering.documentTimeoutSeconds";
+
+    public static final int DEFAULT_DOCUMENT_TIMEOUT = 120;
+
+    /**
+     * Max time (in seconds) to render a page in the background, after it timed out. 0 => no limit.
+     */
+    public static final String RETRY_TIMEOUT_PROPERTY = "nuxeo.pdftoolkit.rendering.retryTimeoutSeconds";
+
+    public static final int DEFAULT_RETRY_TIMEOUT = 300;
+
+    /**
+     * When true (the default), the images of scanned pages (a single JPEG covering the page) are built directly from
+     * the JPEG, without rendering the page. See {@link PDFScannedPage}.
+     */
+    public static final String SCANNED_PAGES_FAST_PATH_PROPERTY = "nuxeo.pdftoolkit.rendering.scannedPagesFastPath";
+
+    protected static final Color PLACEHOLDER_COLOR = new Color(0xEEEEEE);
+
+    protected static final Color PLACEHOLDER_BORDER_COLOR = new Color(0xCCCCCC);
+
+    protected static final int MAX_CACHED_PLACEHOLDERS = 256;
+
+    // Encoded placeholders, by size ("{width}x{height}"): the same few sizes are used again and again
+    protected static final Map<String, byte[]> PLACEHOLDERS = new ConcurrentHashMap<>();
 
     protected int width = DEFAULT_THUMBNAIL_SIZE;
 
@@ -73,8 +150,48 @@ public class PDFToImages {
 
     protected int dpi = DEFAULT_DPI;
 
+    protected int parallelism = PDFToolkitExecutor.getMaxParallelism();
+
+    protected boolean fitToSize = true;
+
+    protected boolean supersampling = false;
+
+    protected PDFColorMode colorMode = getConfiguredColorMode();
+
+    protected String pageRange = null;
+
+    protected int startPage = 0;
+
+    protected int pageCount = 0;
+
+    protected int totalPageCount = -1;
+
+    protected List<PDFPyramidLevel> pyramidLevels = null;
+
+    protected long pageTimeoutMs = getConfiguredTimeout(PAGE_TIMEOUT_PROPERTY, DEFAULT_PAGE_TIMEOUT);
+
+    protected long documentTimeoutMs = getConfiguredTimeout(DOCUMENT_TIMEOUT_PROPERTY, DEFAULT_DOCUMENT_TIMEOUT);
+
+    protected volatile long documentDeadline = Long.MAX_VALUE;
+
+    protected boolean lowFidelity = false;
+
+    protected boolean scannedPagesFastPath = Boolean.parseBoolean(
+            Framework.getProperty(SCANNED_PAGES_FAST_PATH_PROPERTY, "true"));
+
+    // Pages that got a placeholder instead of their image
+    protected Set<Integer> timedOutPages = ConcurrentHashMap.newKeySet();
+
+    protected Set<Blob> placeholders = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
     protected Blob pdfBlob;
 
+    // How the background works get the PDF back, see scheduleRetry()
+    protected PDFBlobReference blobReference;
+
+    // Also makes sure the ImageIO plugins are registered before rendering
+    protected PDFImageEncoder encoder = new PDFImageEncoder();
+
     // ========================================
     // Constructors
     // ========================================
@@ -91,6 +208,9 @@ public class PDFToImages {
         }
 
         pdfBlob = (Blob) doc.getPropertyValue(xpath);
+        if (pdfBlob != null) {
+            blobReference = PDFBlobReference.of(doc, xpath, pdfBlob);
+        }
 
     }
 
@@ -154,6 +274,226 @@ public class PDFToImages {
         dpi = value > 0 ? value : DEFAULT_DPI;
     }
 
+    /**
+     * Number of worker threads used by {@code createThumbnails}. Each worker loads its own view of the PDF, since
+     * PDFBox documents and renderers are not thread safe.
+     * If value is <= 0, the configured value (or DEFAULT_PARALLELISM) applies. The value is capped by the configured
+     * value and the number of processors.
+     * 
+     * @param value
+     */
+    public void setParallelism(int value) {
+        parallelism = PDFToolkitExecutor.clampParallelism(value);
+    }
+
+    /**
+     * When true (the default), each page is rendered at the scale that directly fits the requested width/height,
+     * using its CropBox and rotation. dpi is then a maximum (no page is rendered above this resolution).
+     * When false, pages are rendered at dpi and then scaled down to the requested width/height.
+     * 
+     * @param value
+     */
+    public void setFitToSize(boolean value) {
+        fitToSize = value;
+    }
+
+    /**
+     * Only used when fitToSize is true. Render at twice the target scale (still bound by dpi) and then scale down,
+     * for a better quality (smoother text) at the cost of ~4 times the rendering work.
+     * 
+     * @param value
+     */
+    public void setSupersampling(boolean value) {
+        supersampling = value;
+    }
+
+    /**
+     * Pyramid mode: createThumbnails() also renders these levels (typically, other thumbnail sizes and the previews),
+     * in the same pass: each page is rendered once and all the sizes are derived from this raster, then cached. Null
+     * or empty => only the thumbnails are rendered.
+     * 
+     * @param levels
+     */
+    public void setPyramidLevels(List<PDFPyramidLevel> levels) {
+        pyramidLevels = levels;
+    }
+
+    /**
+     * RGB and GRAY produce JPEG images, BINARY produces 1-bit PNG images. AUTO chooses for each page: RGB if it has
+     * colors, else GRAY if it has continuous tones or if the image is small, else BINARY.
+     * Null => the configured value (or RGB)
+     * 
+     * @param mode
+     */
+    public void setColorMode(PDFColorMode mode) {
+        colorMode = mode == null ? getConfiguredColorMode() : mode;
+    }
+
+    /**
+     * @param mode rgb, gray, binary or auto. Null or blank => the configured value (or rgb)
+     */
+    public void setColorMode(String mode) {
+        setColorMode(StringUtils.isBlank(mode) ? null : PDFColorMode.parse(mode));
+    }
+
+    /**
+     * Time budgets. Past its budget, a page gets a placeholder (flagged in getTimedOutPages()) and is rendered later,
+     * in the background, at a lower fidelity. Values <= 0 => no limit.
+     * 
+     * @param pageTimeoutMs max time to render one page
+     * @param documentTimeoutMs max time to render all the pages of a call
+     */
+    public void setTimeouts(long pageTimeoutMs, long documentTimeoutMs) {
+        this.pageTimeoutMs = Math.max(pageTimeoutMs, 0);
+        this.documentTimeoutMs = Math.max(documentTimeoutMs, 0);
+    }
+
+    /**
+     * Low fidelity: images of the PDF are subsampled and antialiasing is disabled, for a faster rendering. Used when
+     * rendering again pages that exceeded their time budget.
+     * 
+     * @param value
+     */
+    public void setLowFidelity(boolean value) {
+        lowFidelity = value;
+    }
+
+    /**
+     * When true (the default, see SCANNED_PAGES_FAST_PATH_PROPERTY), the images of scanned pages are built directly
+     * from their JPEG (see {@link PDFScannedPage}). Only used when fitToSize is true and the color mode is not AUTO.
+     * 
+     * @param value
+     */
+    public void setScannedPagesFastPath(boolean value) {
+        scannedPagesFastPath = value;
+    }
+
+    /**
+     * @return the sorted 1-based page numbers that got a placeholder (instead of their image) in the last calls,
+     *         because they exceeded their time budget
+     */
+    public Set<Integer> getTimedOutPages() {
+        return new TreeSet<>(timedOutPages);
+    }
+
+    // ========================================
+    // Page selection
+    // ========================================
+    /**
+     * Restrict createThumbnails() to the pages of a print-style range, see {@link PDFTools#parsePageRange}.
+     * Null or blank => all pages (or the ones set by setPages()).
+     * 
+     * @param range
+     */
+    public void setPageRange(String range) {
+        pageRange = StringUtils.isBlank(range) ? null : range.trim();
+    }
+
+    /**
+     * Restrict createThumbnails() to pageCount pages, starting at startPage (1-based).
+     * startPage <= 0 => first page. pageCount <= 0 => up to the last page.
+     * pageCount can go past the end of the document, the selection is then truncated.
+     * 
+     * @param startPage
+     * @param pageCount
+     */
+    public void setPages(int startPage, int pageCount) {
+        this.startPage = Math.max(startPage, 0);
+        this.pageCount = Math.max(pageCount, 0);
+    }
+
+    /**
+     * @return the total number of pages of the PDF, as found by the last call to createThumbnails(). -1 if not yet
+     *         known.
+     */
+    public int getTotalPageCount() {
+        return totalPageCount;
+    }
+
+    /**
+     * @return the sorted 1-based page numbers of the thumbnails returned by the last call to createThumbnails()
+     */
+    public Set<Integer> getSelectedPages() {
+        return totalPageCount < 0 ? Collections.emptySet() : getSelectedPages(totalPageCount);
+    }
+
+    /**
+     * @return identifies the pages selected by setPageRange() or setPages() in a render key, so renders of unrelated
+     *         pages of the same PDF don't wait for each other. Empty for all the pages.
+     */
+    protected String getPageSelectionKey() {
+
+        String selection;
+        if (pageRange != null) {
+            selection = pageRange.replaceAll("\\s", "");
+        } else if (startPage > 0 || pageCount > 0) {
+            selection = startPage + "+" + pageCount;
+        } else {
+            return "";
+        }
+        // Long ranges: a collision only makes two renders wait for each other
+        return "-pages-" + (selection.length() > 64 ? Integer.toHexString(selection.hashCode()) : selection);
+    }
+
+    /**
+     * @param totalPageCount
+     * @return the sorted 1-based page numbers selected by setPageRange() or setPages(). All pages by default.
+     */
+    public Set<Integer> getSelectedPages(int totalPageCount) {
+
+        if (pageRange != null) {
+            return PDFTools.parsePageRange(pageRange, totalPageCount);
+        }
+
+        Set<Integer> pages = new TreeSet<>();
+        int first = startPage > 0 ? startPage : 1;
+        if (totalPageCount > 0) {
+            PDFTools.validatePageNumber(first, totalPageCount, "" + first);
+        }
+        int last = pageCount > 0 ? Math.min(totalPageCount, first + pageCount - 1) : totalPageCount;
+        for (int page = first; page <= last; page++) {
+            pages.add(page);
+        }
+
+        return pages;
+    }
+
+    protected static int getConfiguredParallelism() {
+
+        String value = Framework.getProperty(PARALLELISM_PROPERTY);
+        if (StringUtils.isNotBlank(value)) {
+            try {
+                int parsed = Integer.parseInt(value.trim());
+                if (parsed > 0) {
+                    return parsed;
+                }
+            } catch (NumberFormatException e) {
+                // Ignore, use default
+            }
+        }
+        return DEFAULT_PARALLELISM;
+    }
+
+    /**
+     * @return the configured timeout, in milliseconds, 0 if no limit
+     */
+    public static long getConfiguredTimeout(String property, int defaultSeconds) {
+
+        String value = Framework.getProperty(property);
+        if (StringUtils.isNotBlank(value)) {
+            try {
+                return Math.max(Long.parseLong(value.trim()), 0) * 1000L;
+            } catch (NumberFormatException e) {
+                // Ignore, use default
+            }
+        }
+        return defaultSeconds * 1000L;
+    }
+
+    protected static PDFColorMode getConfiguredColorMode() {
+        return PDFColorMode.parse(Framework.getProperty(COLOR_MODE_PROPERTY));
+    }
+
     // ========================================
     // Extraction
     // ========================================
@@ -225,174 +565,1110 @@ public class PDFToImages {
         }
     }
     
-    protected static TransientStore getTransientStore() {
-        TransientStoreService transientStoreService = Framework.getService(TransientStoreService.class);
-        return transientStoreService.getStore(TRANSIENT_STORE_NAME);
+    /**
+     * Create thumbnails (JPEG) for the pages of the given PDF: all of them, or the ones selected by setPageRange() or
+     * setPages().
+     * Uses the width/height defined in previous calls, or default values.
+     * After the call, getTotalPageCount() returns the number of pages of the PDF.
+     * <br>
+     * Each thumbnail is cached separately (see {@link PDFToolkitCache}), only the pages not found in the cache are
+     * rendered.
+     */
+    public BlobList createThumbnails() {
+
+        String documentKey = PDFToolkitCache.getDocumentKey(pdfBlob);
+        if (documentKey == null) {
+            return createThumbnails(null, null);
+        }
+
+        PDFToolkitCache cache = new PDFToolkitCache();
+        int cachedPageCount = cache.getPageCount(documentKey);
+        if (cachedPageCount >= 0) {
+            List<Integer> pageNumbers = new ArrayList<>(getSelectedPages(cachedPageCount));
+            Blob[] cached = getCachedImages(cache, documentKey, getThumbnailVariant(), pageNumbers);
+            if (!Arrays.asList(cached).contains(null)) {
+                totalPageCount = cachedPageCount;
+                return new BlobList(Arrays.asList(cached));
+            }
+        }
+
+        // Concurrent calls for the same PDF/variant/pages wait for the first one and then get the thumbnails from the
+        // cache
+        String renderKey = PDFToolkitCache.getRenderKey(documentKey, getThumbnailVariant() + getPageSelectionKey());
+        return cache.renderOnce(renderKey, () -> createThumbnails(cache, documentKey));
     }
-    
-    // Returns a key that can be used either by the list of thumbnails (pageNum null) or by a preview.
-    protected String getCacheKey(Integer pageNum) {
-        
-        String pageNumSuffix = "-" + ((pageNum != null) ? pageNum : 0);
-        
-        String key = pdfBlob.getDigest();
-        if(StringUtils.isNotBlank(key)) {
-            return key + pageNumSuffix;
+
+    /**
+     * Get the thumbnails from the cache, render the missing ones and put them in the cache.
+     * In pyramid mode (see setPyramidLevels()), the pyramid levels are rendered in the same pass.
+     * 
+     * @param cache null => no cache
+     * @param documentKey
+     * @return the thumbnails
+     */
+    protected BlobList createThumbnails(PDFToolkitCache cache, String documentKey) {
+
+        List<PDFPyramidLevel> levels = new ArrayList<>();
+        levels.add(new PDFPyramidLevel(width, height, dpi));
+        if (pyramidLevels != null) {
+            for (PDFPyramidLevel level : pyramidLevels) {
+                if (!levels.contains(level)) {
+                    levels.add(level);
+                }
+            }
         }
-        if(pdfBlob instanceof ManagedBlob) {
-            key = ((ManagedBlob) pdfBlob).getKey();
+
+        return createImages(cache, documentKey, levels).get(0);
+    }
+
+    /**
+     * Create the images of the pages (all of them, or the ones selected by setPageRange() or setPages()) for each
+     * level. Each page is rendered once, at the highest resolution needed, and every level is derived from this
+     * raster. Each image is cached separately, so the thumbnails and previews of the same sizes are then found in the
+     * cache (a level of PREVIEW_PAGE_MAX_SIZE x PREVIEW_PAGE_MAX_SIZE at PREVIEW_DPI is the JPEG preview).
+     * <br>
+     * After the call, getTotalPageCount() returns the number of pages of the PDF.
+     * 
+     * @param levels
+     * @return the images for each level, in the same order as levels
+     */
+    public List<BlobList> createPyramid(List<PDFPyramidLevel> levels) {
+
+        if (levels == null || levels.isEmpty()) {
+            throw new IllegalArgumentException("No pyramid level");
         }
-        if(StringUtils.isNotBlank(key)) {
-            return key + pageNumSuffix;
+
+        String documentKey = PDFToolkitCache.getDocumentKey(pdfBlob);
+        if (documentKey == null) {
+            return createImages(null, null, levels);
         }
-        
-        String fileName = pdfBlob.getFilename();
-        long length = pdfBlob.getLength();
-        if(StringUtils.isNotBlank(fileName)) {
-            return fileName + "-" + length + pageNumSuffix;
+
+        PDFToolkitCache cache = new PDFToolkitCache();
+        String renderKey = PDFToolkitCache.getRenderKey(documentKey,
+                "pyramid-" + StringUtils.join(getVariants(levels), "-") + getPageSelectionKey());
+        return cache.renderOnce(renderKey, () -> createImages(cache, documentKey, levels));
+    }
+
+    /**
+     * Get the images from the cache, render the missing ones and put them in the cache.
+     * 
+     * @param cache null => no cache
+     * @param documentKey
+     * @param levels
+     * @return the images for each level
+     */
+    protected List<BlobList> createImages(PDFToolkitCache cache, String documentKey, List<PDFPyramidLevel> levels) {
+
+        List<String> variants = getVariants(levels);
+        documentDeadline = documentTimeoutMs > 0 ? System.currentTimeMillis() + documentTimeoutMs : Long.MAX_VALUE;
+
+        List<Integer> pageNumbers = null;
+        Blob[][] results = null;
+        if (cache != null) {
+            int cachedPageCount = cache.getPageCount(documentKey);
+            if (cachedPageCount >= 0) {
+                totalPageCount = cachedPageCount;
+                pageNumbers = new ArrayList<>(getSelectedPages(totalPageCount));
+                results = getCachedImages(cache, documentKey, variants, pageNumbers);
+                if (getMissingLevels(results, pageNumbers).isEmpty()) {
+                    return toBlobLists(results, levels.size());
+                }
+            }
+        }
+
+        // Parsed documents are kept open for a while (see PDFDocumentCache)
+        try (PDFDocumentCache.Lease lease = PDFDocumentCache.getInstance().acquire(pdfBlob)) {
+
+            PDDocument document = lease.getDocument();
+            if (pageNumbers == null) {
+                totalPageCount = document.getNumberOfPages();
+                pageNumbers = new ArrayList<>(getSelectedPages(totalPageCount));
+                results = getCachedImages(cache, documentKey, variants, pageNumbers);
+            }
+
+            // Images that recently exceeded their time budget are being rendered in the background
+            if (cache != null) {
+                for (int i = 0; i < results.length; i++) {
+                    for (int level = 0; level < levels.size(); level++) {
+                        String key = PDFToolkitCache.getPageKey(documentKey, pageNumbers.get(i), variants.get(level));
+                        if (results[i][level] == null && cache.isTimedOut(key)) {
+                            PDFPyramidLevel l = levels.get(level);
+                            results[i][level] = getPlaceholder(document.getPage(pageNumbers.get(i) - 1),
+                                    l.getWidth(), l.getHeight(), l.getDpi(), pageNumbers.get(i));
+                        }
+                    }
+                }
+            }
+
+            Map<Integer, boolean[]> missingLevels = getMissingLevels(results, pageNumbers);
+            List<Integer> missingPages = new ArrayList<>(missingLevels.keySet());
+
+            PagesRenderer<Blob[]> pagesRenderer = (doc, pages) -> renderPages(doc, pages, levels, missingLevels);
+            List<Blob[]> rendered;
+            int workers = Math.min(parallelism, missingPages.size());
+            if (workers <= 1) {
+                rendered = pagesRenderer.render(document, missingPages);
+            } else {
+                rendered = renderInParallel(lease.getSource(), missingPages, workers, pagesRenderer);
+            }
+
+            int renderedIdx = 0;
+            for (int i = 0; i < results.length; i++) {
+                if (!missingLevels.containsKey(pageNumbers.get(i))) {
+                    continue;
+                }
+                Blob[] pageImages = rendered.get(renderedIdx++);
+                for (int level = 0; level < levels.size(); level++) {
+                    if (results[i][level] == null) {
+                        results[i][level] = pageImages[level];
+                        if (cache != null) {
+                            String key = PDFToolkitCache.getPageKey(documentKey, pageNumbers.get(i),
+                                    variants.get(level));
+                            if (placeholders.contains(results[i][level])) {
+                                cache.markTimedOut(key);
+                                scheduleRetry(key, pageNumbers.get(i), levels.get(level));
+                            } else {
+                                cache.putBlob(key, results[i][level]);
+                            }
+                        }
+                    }
+                }
+            }
+            if (cache != null) {
+                cache.putPageCount(documentKey, totalPageCount);
+            }
+
+            return toBlobLists(results, levels.size());
+
+        } catch (IOException e) {
+            throw new NuxeoException("Failed to extract the pages", e);
         }
-        
-        // No digest, no key, no filename : what the hell is this blob? :-)
-        // (likely something from a unit test)
-        return null;
-        
     }
 
     /**
-     * Create thumbnails (PNG) for all pages of the given PDF.
-     * Uses the width/height defined in previous calls, or default values.
+     * @param cache can be null (=> nothing is cached)
+     * @param documentKey
+     * @param variant
+     * @param pageNumbers
+     * @return the cached images, in the same order as pageNumbers, with null for the pages not in the cache
      */
-    public BlobList createThumbnails() {
-        
-        String cacheKey = getCacheKey(null);
-        TransientStore store = getTransientStore();
-        if(cacheKey != null) {
-            if(store.exists(cacheKey)) {
-                return new BlobList(store.getBlobs(cacheKey));
+    protected Blob[] getCachedImages(PDFToolkitCache cache, String documentKey, String variant,
+            List<Integer> pageNumbers) {
+
+        Blob[] images = new Blob[pageNumbers.size()];
+        if (cache != null) {
+            for (int i = 0; i < images.length; i++) {
+                images[i] = cache.getBlob(PDFToolkitCache.getPageKey(documentKey, pageNumbers.get(i), variant));
             }
-            store.setCompleted(cacheKey, false);
         }
+        return images;
+    }
 
-        ImageIO.scanForPlugins();
-        BlobList results = new BlobList();
+    /**
+     * @return the cached images, [page][variant], with null for the images not in the cache
+     */
+    protected Blob[][] getCachedImages(PDFToolkitCache cache, String documentKey, List<String> variants,
+            List<Integer> pageNumbers) {
+
+        Blob[][] images = new Blob[pageNumbers.size()][variants.size()];
+        for (int level = 0; level < variants.size(); level++) {
+            Blob[] cached = getCachedImages(cache, documentKey, variants.get(level), pageNumbers);
+            for (int i = 0; i < cached.length; i++) {
+                images[i][level] = cached[i];
+            }
+        }
+        return images;
+    }
 
-        // pdfBlob.getFile() could be null, like when the
-        // related file is on S3 for example, we must download it.
-        try (CloseableFile source = pdfBlob.getCloseableFile();
-                PDDocument document = Loader.loadPDF(source.getFile())) {
+    /**
+     * @return for each page with at least one missing image, the levels to render
+     */
+    protected static Map<Integer, boolean[]> getMissingLevels(Blob[][] images, List<Integer> pageNumbers) {
+
+        Map<Integer, boolean[]> missing = new LinkedHashMap<>();
+        for (int i = 0; i < images.length; i++) {
+            boolean[] toRender = new boolean[images[i].length];
+            boolean any = false;
+            for (int level = 0; level < toRender.length; level++) {
+                toRender[level] = images[i][level] == null;
+                any |= toRender[level];
+            }
+            if (any) {
+                missing.put(pageNumbers.get(i), toRender);
+            }
+        }
+        return missing;
+    }
 
-            PDFRenderer renderer = new PDFRenderer(document);
+    protected static List<BlobList> toBlobLists(Blob[][] images, int levelCount) {
 
-            int pageCount = document.getNumberOfPages();
-            for (int pageIndex = 0; pageIndex < pageCount; pageIndex++) {
+        List<BlobList> lists = new ArrayList<>();
+        for (int level = 0; level < levelCount; level++) {
+            BlobList list = new BlobList();
+            for (Blob[] pageImages : images) {
+                list.add(pageImages[level]);
+            }
+            lists.add(list);
+        }
+        return lists;
+    }
+
+    /**
+     * The rendering variant, part of the cache key: everything that changes the resulting image.
+     */
+    protected String getVariant(int maxWidth, int maxHeight, int maxDpi) {
+
+        String variant = maxWidth + "x" + maxHeight + "-" + maxDpi;
+        if (!fitToSize) {
+            variant += "-scaled";
+        }
+        if (supersampling) {
+            variant += "-ss";
+        }
+        if (colorMode != PDFColorMode.RGB) {
+            variant += "-" + colorMode.name().toLowerCase();
+        }
+        return variant;
+    }
+
+    protected String getThumbnailVariant() {
+        return getVariant(width, height, dpi);
+    }
+
+    protected List<String> getVariants(List<PDFPyramidLevel> levels) {
+
+        List<String> variants = new ArrayList<>();
+        for (PDFPyramidLevel level : levels) {
+            variants.add(getVariant(level.getWidth(), level.getHeight(), level.getDpi()));
+        }
+        return variants;
+    }
+
+    /**
+     * Renders some pages of a document. Used to split the rendering across threads.
+     */
+    @FunctionalInterface
+    protected interface PagesRenderer<T> {
+
+        List<T> render(PDDocument document, List<Integer> pageNumbers) throws IOException;
+    }
+
+    /**
+     * Render the missing images of the pages.
+     * 
+     * @param document
+     * @param pageNumbers 1-based
+     * @param levels
+     * @param missingLevels the levels to render for each page
+     * @return for each page (same order as pageNumbers), the images of the levels (null for levels not rendered)
+     * @throws IOException
+     */
+    protected List<Blob[]> renderPages(PDDocument document, List<Integer> pageNumbers, List<PDFPyramidLevel> levels,
+            Map<Integer, boolean[]> missingLevels) throws IOException {
+
+        List<Blob[]> images = new ArrayList<>();
+
+        PDFBudgetedRenderer renderer = createRenderer(document);
+        for (int pageNum : pageNumbers) {
+            int pageIndex = pageNum - 1;
+            PDPage page = document.getPage(pageIndex);
+            boolean[] toRender = missingLevels.get(pageNum);
+            // Once the document budget is exceeded, the next pages stop at their first operator
+            renderer.setDeadline(getPageDeadline());
+            try {
+                images.add(renderPyramid(renderer, page, pageIndex, levels, toRender));
+            } catch (PDFRenderTimeoutException e) {
+                Blob[] pageImages = new Blob[levels.size()];
+                for (int i = 0; i < pageImages.length; i++) {
+                    if (toRender[i]) {
+                        PDFPyramidLevel level = levels.get(i);
+                        pageImages[i] = getPlaceholder(page, level.getWidth(), level.getHeight(), level.getDpi(),
+                                pageNum);
+                    }
+                }
+                images.add(pageImages);
+            }
+        }
+
+        return images;
+    }
 
-                BufferedImage pageImage = renderer.renderImageWithDPI(pageIndex, dpi, ImageType.RGB);
+    /**
+     * Render the page once, at the highest scale needed by the levels to render, and derive the other levels from
+     * this raster. When not fitting to size (see setFitToSize()), each level is rendered separately.
+     * 
+     * @param renderer
+     * @param page
+     * @param pageIndex 0-based
+     * @param levels
+     * @param toRender the levels to render
+     * @return the images, null for the levels not rendered
+     * @throws IOException
+     */
+    protected Blob[] renderPyramid(PDFRenderer renderer, PDPage page, int pageIndex, List<PDFPyramidLevel> levels,
+            boolean[] toRender) throws IOException {
 
-                // Create scaled thumbnail
-                BufferedImage thumb = scaleToFit(pageImage, width, height);
+        Blob[] images = getScannedPageImages(page, pageIndex + 1, levels, toRender);
+        if (images != null) {
+            return images;
+        }
 
-                Blob resultBlob = imageToBlob(thumb, "jpg", ".jpg", "image/jpeg", pageIndex + 1);
+        images = new Blob[levels.size()];
+        PDFColorMode pageColorMode = getPageColorMode(renderer, page, pageIndex);
 
-                results.add(resultBlob);
+        int count = 0;
+        for (boolean render : toRender) {
+            count += render ? 1 : 0;
+        }
+        if (count == 1 || !fitToSize) {
+            for (int i = 0; i < images.length; i++) {
+                if (toRender[i]) {
+                    PDFPyramidLevel level = levels.get(i);
+                    BufferedImage img = renderPage(renderer, page, pageIndex, level.getWidth(), level.getHeight(),
+                            level.getDpi(), pageColorMode);
+                    images[i] = encodePage(img, pageIndex + 1);
+                }
             }
-            if(cacheKey != null) {
-                store.putBlobs(cacheKey, results);
+            return images;
+        }
+
+        float[] scales = new float[images.length];
+        float maxScale = 0;
+        int maxDpi = 0;
+        for (int i = 0; i < images.length; i++) {
+            if (toRender[i]) {
+                PDFPyramidLevel level = levels.get(i);
+                scales[i] = getScaleToFit(page, level.getWidth(), level.getHeight(), level.getDpi());
+                if (scales[i] > maxScale) {
+                    maxScale = scales[i];
+                    maxDpi = level.getDpi();
+                }
             }
+        }
 
-            return results;
+        float renderScale = maxScale;
+        if (supersampling) {
+            renderScale = Math.max(maxScale, Math.min(maxScale * 2, maxDpi / 72f));
+        }
+        // 1-bit images are derived from the gray raster
+        ImageType rasterType = pageColorMode == PDFColorMode.RGB ? ImageType.RGB : ImageType.GRAY;
+        BufferedImage raster = renderer.renderImage(pageIndex, renderScale, rasterType);
+
+        for (int i = 0; i < images.length; i++) {
+            if (toRender[i]) {
+                BufferedImage img = raster;
+                if (scales[i] < renderScale) {
+                    float ratio = scales[i] / renderScale;
+                    img = resize(raster, Math.max(1, Math.round(raster.getWidth() * ratio)),
+                            Math.max(1, Math.round(raster.getHeight() * ratio)));
+                }
+                img = toImageType(img, getImageType(pageColorMode, scales[i]));
+                images[i] = encodePage(img, pageIndex + 1);
+            }
+        }
 
-        } catch (IOException e) {
-            throw new NuxeoException("Failed to extract the pages", e);
-        } finally {
-            if(cacheKey != null) {
-                store.setCompleted(cacheKey, true);
+        return images;
+    }
+
+    /**
+     * Split the pages across workers threads. Pages are interleaved (worker 0 renders pages 1, 1 + workers, ...) so
+     * that heavy pages grouped in the same part of the document don't all end up on the same thread.
+     * Each worker uses its own PDDocument/PDFRenderer.
+     * 
+     * @param source shared by the workers, each one loading its own PDDocument
+     * @param pageNumbers 1-based
+     * @param workers
+     * @param pagesRenderer
+     * @return the results, in the same order as pageNumbers
+     * @throws IOException
+     */
+    protected <T> List<T> renderInParallel(PDFSource source, List<Integer> pageNumbers, int workers,
+            PagesRenderer<T> pagesRenderer) throws IOException {
+
+        ExecutorService executor = PDFToolkitExecutor.getExecutor();
+        List<Future<List<T>>> futures = new ArrayList<>();
+        try {
+            for (int worker = 0; worker < workers; worker++) {
+                List<Integer> workerPages = new ArrayList<>();
+                for (int i = worker; i < pageNumbers.size(); i += workers) {
+                    workerPages.add(pageNumbers.get(i));
+                }
+                futures.add(executor.submit(() -> {
+                    try (PDDocument document = PDFResourceCache.install(source.load())) {
+                        return pagesRenderer.render(document, workerPages);
+                    }
+                }));
+            }
+
+            List<T> ordered = new ArrayList<>(Collections.nCopies(pageNumbers.size(), null));
+            for (int worker = 0; worker < workers; worker++) {
+                List<T> results = futures.get(worker).get();
+                for (int i = 0; i < results.size(); i++) {
+                    ordered.set(worker + i * workers, results.get(i));
+                }
+            }
+
+            return ordered;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NuxeoException("Interrupted while rendering the pages", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
             }
+            throw new NuxeoException("Failed to render the pages", e.getCause());
+        } finally {
+            // No-op for the completed ones
+            futures.forEach(future -> future.cancel(true));
         }
     }
 
     /**
-     * Return the image preview, with no resizing.
-     * Only dpi can be tuned (previous call to setDpi()) if nneded.
-     * It resizes it at max PREVIEW_PAGE_SIZE/PREVIEW_PAGE_SIZE
+     * Return the JPEG preview of the page, max PREVIEW_PAGE_MAX_SIZE x PREVIEW_PAGE_MAX_SIZE, max PREVIEW_DPI (a 1-bit
+     * PNG when the color mode gives BINARY for this page).
+     * The page is rendered directly at this size and encoded once, in the JVM (no external conversion).
+     * It is cached like a thumbnail of the same size/dpi.
      * 
      * @param pageNum
      * @return
      */
     public Blob getJpegPreviewImage(int pageNum) {
         
-        String cacheKey = getCacheKey(pageNum);
-        TransientStore store = getTransientStore();
-        if(cacheKey != null) {
-            if(store.exists(cacheKey)) {
-                return store.getBlobs(cacheKey).get(0);
-            }
-            store.setCompleted(cacheKey, false);
+        String documentKey = PDFToolkitCache.getDocumentKey(pdfBlob);
+        if (documentKey == null) {
+            return getJpegPreviewImage(pageNum, null, null);
+        }
+
+        PDFToolkitCache cache = new PDFToolkitCache();
+        String cacheKey = PDFToolkitCache.getPageKey(documentKey, pageNum,
+                getVariant(PREVIEW_PAGE_MAX_SIZE, PREVIEW_PAGE_MAX_SIZE, PREVIEW_DPI));
+        Blob cached = cache.getBlob(cacheKey);
+        if (cached != null) {
+            return cached;
         }
 
-        ImageIO.scanForPlugins();
+        return cache.renderOnce(cacheKey + "-render", () -> {
+            Blob blob = cache.getBlob(cacheKey);
+            return blob != null ? blob : getJpegPreviewImage(pageNum, cache, cacheKey);
+        });
+    }
+
+    /**
+     * Render the preview and put it in the cache
+     * 
+     * @param pageNum
+     * @param cache null => no cache
+     * @param cacheKey
+     * @return the preview
+     */
+    protected Blob getJpegPreviewImage(int pageNum, PDFToolkitCache cache, String cacheKey) {
 
-        // pdfBlob.getFile() could be null, like when the
-        // related file is on S3 for example, we must download it.
-        try (CloseableFile source = pdfBlob.getCloseableFile();
-                PDDocument document = Loader.loadPDF(source.getFile())) {
+        // Parsed documents are kept open for a while, so browsing the previews of the pages doesn't parse the PDF
+        // each time (see PDFDocumentCache)
+        try (PDFDocumentCache.Lease lease = PDFDocumentCache.getInstance().acquire(pdfBlob)) {
 
+            PDDocument document = lease.getDocument();
             int pageCount = document.getNumberOfPages();
             PDFTools.validatePageNumber(pageNum, pageCount, "" + pageNum);
 
-            PDFRenderer renderer = new PDFRenderer(document);
             int pageIndex = pageNum - 1;
-            BufferedImage pageImage = renderer.renderImageWithDPI(pageIndex, 300, ImageType.RGB);
+            PDPage page = document.getPage(pageIndex);
+            if (cache != null && cache.isTimedOut(cacheKey)) {
+                return getPlaceholder(page, PREVIEW_PAGE_MAX_SIZE, PREVIEW_PAGE_MAX_SIZE, PREVIEW_DPI, pageNum);
+            }
 
-            // pageImage = scaleToFit(pageImage, PREVIEW_PAGE_SIZE, PREVIEW_PAGE_SIZE);
+            PDFPyramidLevel previewLevel = new PDFPyramidLevel(PREVIEW_PAGE_MAX_SIZE, PREVIEW_PAGE_MAX_SIZE,
+                    PREVIEW_DPI);
+            Blob[] scanned = getScannedPageImages(page, pageNum, List.of(previewLevel), new boolean[] { true });
+            if (scanned != null) {
+                if (cache != null) {
+                    cache.putBlob(cacheKey, scanned[0]);
+                }
+                return scanned[0];
+            }
 
-            Blob resultBlob = imageToBlob(pageImage, "jpg", ".jpg", "image/jpeg", pageNum);
+            PDFBudgetedRenderer renderer = createRenderer(document);
+            documentDeadline = Long.MAX_VALUE;
+            renderer.setDeadline(getPageDeadline());
+            Blob resultBlob;
+            try {
+                BufferedImage pageImage = renderPage(renderer, page, pageIndex, PREVIEW_PAGE_MAX_SIZE,
+                        PREVIEW_PAGE_MAX_SIZE, PREVIEW_DPI);
+                resultBlob = encodePage(pageImage, pageNum);
+            } catch (PDFRenderTimeoutException e) {
+                resultBlob = getPlaceholder(page, PREVIEW_PAGE_MAX_SIZE, PREVIEW_PAGE_MAX_SIZE, PREVIEW_DPI, pageNum);
+                if (cache != null) {
+                    cache.markTimedOut(cacheKey);
+                    scheduleRetry(cacheKey, pageNum, previewLevel);
+                }
+                return resultBlob;
+            }
 
-            SimpleBlobHolder bh = new SimpleBlobHolder(resultBlob);
-            Map<String, Serializable> parameters = new HashMap<>();
+            if (cache != null) {
+                cache.putBlob(cacheKey, resultBlob);
+            }
 
-            parameters.put(ImagingConvertConstants.OPTION_RESIZE_WIDTH, PREVIEW_PAGE_MAX_SIZE);
-            parameters.put(ImagingConvertConstants.OPTION_RESIZE_HEIGHT, PREVIEW_PAGE_MAX_SIZE);
-            parameters.put(ImagingConvertConstants.CONVERSION_FORMAT, ImagingConvertConstants.JPEG_CONVERSATION_FORMAT);
+            return resultBlob;
 
-            BlobHolder holder = Framework.getService(ConversionService.class).convert("pictureResize", bh, parameters);
-            Blob resizedBlob = holder.getBlob();
-            // Make sure to realign values
-            resizedBlob.setMimeType("image/jpeg");
-            resultBlob.setFilename(resultBlob.getFilename());
-            
-            if(cacheKey != null) {
-                store.putBlobs(cacheKey, Collections.singletonList(resultBlob));
+        } catch (IOException e) {
+            throw new NuxeoException("Failed to extract the page and make it a JPEG.", e);
+        }
+
+    }
+
+    /**
+     * Build the images of a scanned page directly from its JPEG (see {@link PDFScannedPage}): decoded once, with
+     * subsampling, at the largest size needed, the other sizes are derived from it. A JPEG that already has the size
+     * of an image is used as is.
+     * 
+     * @param page
+     * @param pageNum 1-based
+     * @param levels
+     * @param toRender the levels to build
+     * @return the images (null for the levels not built), or null if the page is not a scanned page (or its JPEG
+     *         cannot be decoded): it must then be rendered
+     */
+    protected Blob[] getScannedPageImages(PDPage page, int pageNum, List<PDFPyramidLevel> levels,
+            boolean[] toRender) {
+
+        if (!scannedPagesFastPath || !fitToSize || colorMode == PDFColorMode.AUTO) {
+            return null;
+        }
+
+        try {
+            PDFScannedPage scannedPage = PDFScannedPage.detect(page);
+            if (scannedPage == null) {
+                return null;
             }
 
-            return resizedBlob;
+            int[][] sizes = new int[levels.size()][];
+            int largest = -1;
+            for (int i = 0; i < sizes.length; i++) {
+                if (toRender[i]) {
+                    PDFPyramidLevel level = levels.get(i);
+                    sizes[i] = PDFPageTiles.getLevelSize(page,
+                            getScaleToFit(page, level.getWidth(), level.getHeight(), level.getDpi()));
+                    if (largest < 0 || sizes[i][0] * sizes[i][1] > sizes[largest][0] * sizes[largest][1]) {
+                        largest = i;
+                    }
+                }
+            }
+
+            Blob[] images = new Blob[levels.size()];
+            BufferedImage decoded = null;
+            for (int i = 0; i < images.length; i++) {
+                if (!toRender[i]) {
+                    continue;
+                }
+                int w = sizes[i][0];
+                int h = sizes[i][1];
+                if (scannedPage.hasSize(w, h)
+                        && (colorMode == PDFColorMode.RGB || colorMode == PDFColorMode.GRAY && scannedPage.isGray())) {
+                    images[i] = Blobs.createBlob(scannedPage.getJpegBytes(), "image/jpeg");
+                    images[i].setFilename(PDFTools.getFileNameNoExtension(pdfBlob, "pdf-img", "-p" + pageNum) + ".jpg");
+                    continue;
+                }
+                if (decoded == null) {
+                    decoded = scannedPage.decode(sizes[largest][0], sizes[largest][1]);
+                }
+                BufferedImage img = decoded.getWidth() == w && decoded.getHeight() == h ? decoded
+                        : resize(decoded, w, h);
+                images[i] = encodePage(toColorMode(img), pageNum);
+            }
+
+            return images;
 
         } catch (IOException e) {
-            throw new NuxeoException("Failed to extract the page and make it a PNG.", e);
-        } finally {
-            if(cacheKey != null) {
-                store.setCompleted(cacheKey, true);
+            // Not decoded by ImageIO (or a broken PDF), render it
+            return null;
+        }
+    }
+
+    /**
+     * Convert an RGB or gray image to the color mode (RGB, GRAY or BINARY)
+     */
+    protected BufferedImage toColorMode(BufferedImage img) {
+
+        if (colorMode == PDFColorMode.RGB) {
+            return img;
+        }
+
+        BufferedImage gray = img;
+        if (img.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+            gray = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+            Graphics2D g2d = gray.createGraphics();
+            try {
+                g2d.drawImage(img, 0, 0, null);
+            } finally {
+                g2d.dispose();
+            }
+        }
+        return colorMode == PDFColorMode.BINARY ? toImageType(gray, ImageType.BINARY) : gray;
+    }
+
+    // ========================================
+    // Time budget
+    // ========================================
+    /**
+     * @return a renderer that stops a page once its deadline is passed. Faster, lower quality settings in low fidelity
+     *         mode (see setLowFidelity()).
+     */
+    protected PDFBudgetedRenderer createRenderer(PDDocument document) {
+
+        PDFBudgetedRenderer renderer = new PDFBudgetedRenderer(document);
+        if (lowFidelity) {
+            renderer.setSubsamplingAllowed(true);
+            RenderingHints hints = new RenderingHints(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_OFF);
+            hints.put(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            hints.put(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+            renderer.setRenderingHints(hints);
+        }
+        return renderer;
+    }
+
+    /**
+     * @return the deadline of a page starting now: the page budget, bound by the document budget
+     */
+    protected long getPageDeadline() {
+
+        long deadline = pageTimeoutMs > 0 ? System.currentTimeMillis() + pageTimeoutMs : Long.MAX_VALUE;
+        return Math.min(deadline, documentDeadline);
+    }
+
+    /**
+     * Return a placeholder image, of the size the page would have: a light gray rectangle. The page is added to
+     * getTimedOutPages().
+     */
+    protected Blob getPlaceholder(PDPage page, int maxWidth, int maxHeight, int maxDpi, int pageNum)
+            throws IOException {
+
+        int[] size = PDFPageTiles.getLevelSize(page, getScaleToFit(page, maxWidth, maxHeight, maxDpi));
+        int w = Math.max(size[0], 1);
+        int h = Math.max(size[1], 1);
+
+        String sizeKey = w + "x" + h;
+        byte[] bytes = PLACEHOLDERS.get(sizeKey);
+        if (bytes == null) {
+            BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = img.createGraphics();
+            try {
+                g2d.setColor(PLACEHOLDER_COLOR);
+                g2d.fillRect(0, 0, w, h);
+                g2d.setColor(PLACEHOLDER_BORDER_COLOR);
+                g2d.drawRect(0, 0, w - 1, h - 1);
+            } finally {
+                g2d.dispose();
+            }
+            bytes = encoder.encodeJpeg(img);
+            if (PLACEHOLDERS.size() < MAX_CACHED_PLACEHOLDERS) {
+                PLACEHOLDERS.put(sizeKey, bytes);
+            }
+        }
+
+        Blob blob = Blobs.createBlob(bytes, "image/jpeg");
+        blob.setFilename(PDFTools.getFileNameNoExtension(pdfBlob, "pdf-img", "-p" + pageNum + "-placeholder") + ".jpg");
+        placeholders.add(blob);
+        timedOutPages.add(pageNum);
+
+        return blob;
+    }
+
+    /**
+     * Schedule the rendering of an image that exceeded its time budget, in the background and at a lower fidelity
+     * (see {@link PDFRenderRetryWork}). The image then replaces the placeholder in the cache.
+     */
+    protected void scheduleRetry(String cacheKey, int pageNum, PDFPyramidLevel level) {
+
+        // The work may run on another node: it reads the PDF from its document (or blob provider), the PDF is copied
+        // in the cache only when there is no other way
+        PDFBlobReference source = blobReference != null ? blobReference : PDFBlobReference.of(pdfBlob);
+        source.keepCopyIfNeeded(pdfBlob);
+
+        PDFRenderRetryWork work = new PDFRenderRetryWork(source, cacheKey, pageNum, level, fitToSize, supersampling,
+                colorMode);
+        Framework.getService(WorkManager.class).schedule(work, WorkManager.Scheduling.IF_NOT_SCHEDULED);
+    }
+
+    /**
+     * Render, at a lower fidelity, an image that exceeded its time budget and put it in the cache (see
+     * scheduleRetry()). The PDF is loaded separately, so a long render doesn't hold the document shared by the
+     * requests (see PDFDocumentCache).
+     * 
+     * @param cacheKey
+     * @param pageNum
+     * @param level
+     * @return true if the image was rendered, false if it exceeded the budget again
+     */
+    public boolean renderTimedOutImage(String cacheKey, int pageNum, PDFPyramidLevel level) {
+
+        // The settings must give the variant of the key, else another image would be cached under it
+        String variant = getVariant(level.getWidth(), level.getHeight(), level.getDpi());
+        if (!cacheKey.endsWith("-" + variant)) {
+            throw new IllegalArgumentException("The settings (" + variant + ") don't match the image " + cacheKey);
+        }
+
+        PDFToolkitCache cache = new PDFToolkitCache();
+        try (PDFSource source = PDFSource.open(pdfBlob);
+                PDDocument document = PDFResourceCache.install(source.load())) {
+
+            PDFTools.validatePageNumber(pageNum, document.getNumberOfPages(), "" + pageNum);
+            int pageIndex = pageNum - 1;
+
+            PDFBudgetedRenderer renderer = createRenderer(document);
+            documentDeadline = Long.MAX_VALUE;
+            renderer.setDeadline(getPageDeadline());
+            BufferedImage img = renderPage(renderer, document.getPage(pageIndex), pageIndex, level.getWidth(),
+                    level.getHeight(), level.getDpi());
+
+            // Lower fidelity: not kept forever, the page is rendered again once the TransientStore entry expires
+            cache.putBlob(cacheKey, encodePage(img, pageNum), false);
+            cache.clearTimedOut(cacheKey);
+            return true;
+
+        } catch (PDFRenderTimeoutException e) {
+            return false;
+        } catch (IOException e) {
+            throw new NuxeoException("Failed to render page " + pageNum, e);
+        }
+    }
+
+    // ========================================
+    // Sprite sheets
+    // ========================================
+    /**
+     * Pack the thumbnails (see createThumbnails()) in a few JPEG images, pagesPerSheet thumbnails per image, so a UI
+     * loads and decodes a few images instead of one per page. The layout of each sheet gives the rectangle of each
+     * page.
+     * <br>
+     * Cells are thumbnail-sized (width x height), rounded up to a multiple of 16 pixels so JPEG blocks never overlap
+     * two pages. Sheets are cached (see {@link PDFToolkitCache}), like the thumbnails.
+     * 
+     * @param pagesPerSheet
+     * @param columns number of thumbnails per row. If <= 0, DEFAULT_SPRITE_COLUMNS (or pagesPerSheet if smaller)
+     * @return the sheets, in page order
+     */
+    public List<PDFSpriteSheet> createSpriteSheets(int pagesPerSheet, int columns) {
+
+        if (pagesPerSheet <= 0) {
+            throw new IllegalArgumentException("pagesPerSheet must be > 0");
+        }
+        int cols = columns > 0 ? columns : Math.min(pagesPerSheet, DEFAULT_SPRITE_COLUMNS);
+
+        String documentKey = PDFToolkitCache.getDocumentKey(pdfBlob);
+        PDFToolkitCache cache = documentKey == null ? null : new PDFToolkitCache();
+
+        if (cache != null) {
+            int cachedPageCount = cache.getPageCount(documentKey);
+            if (cachedPageCount >= 0) {
+                List<Integer> pageNumbers = new ArrayList<>(getSelectedPages(cachedPageCount));
+                List<PDFSpriteSheet> sheets = getCachedSpriteSheets(cache, documentKey, pageNumbers, pagesPerSheet,
+                        cols);
+                if (sheets != null) {
+                    totalPageCount = cachedPageCount;
+                    return sheets;
+                }
+            }
+        }
+
+        BlobList thumbnails = createThumbnails();
+        List<Integer> pageNumbers = new ArrayList<>(getSelectedPages());
+
+        List<PDFSpriteSheet> sheets = new ArrayList<>();
+        try {
+            for (int start = 0; start < pageNumbers.size(); start += pagesPerSheet) {
+                int end = Math.min(start + pagesPerSheet, pageNumbers.size());
+                List<Integer> sheetPages = pageNumbers.subList(start, end);
+                PDFSpriteSheet sheet = buildSpriteSheet(thumbnails.subList(start, end), sheetPages, cols);
+                // A sheet with placeholders is built again once the pages are rendered
+                if (cache != null && Collections.disjoint(sheetPages, timedOutPages)) {
+                    String key = getSpriteSheetKey(documentKey, sheetPages, cols);
+                    cache.putBlob(key, sheet.getImage());
+                    cache.putBlob(key + SPRITE_LAYOUT_SUFFIX, Blobs.createJSONBlob(sheet.getLayout().toString()));
+                }
+                sheets.add(sheet);
+            }
+        } catch (IOException e) {
+            throw new NuxeoException("Failed to build the sprite sheets", e);
+        }
+
+        return sheets;
+    }
+
+    /**
+     * @return the sheets, null if at least one of them is not in the cache
+     */
+    protected List<PDFSpriteSheet> getCachedSpriteSheets(PDFToolkitCache cache, String documentKey,
+            List<Integer> pageNumbers, int pagesPerSheet, int columns) {
+
+        List<PDFSpriteSheet> sheets = new ArrayList<>();
+        for (int start = 0; start < pageNumbers.size(); start += pagesPerSheet) {
+            int end = Math.min(start + pagesPerSheet, pageNumbers.size());
+            String key = getSpriteSheetKey(documentKey, pageNumbers.subList(start, end), columns);
+            Blob image = cache.getBlob(key);
+            Blob layout = image == null ? null : cache.getBlob(key + SPRITE_LAYOUT_SUFFIX);
+            if (layout == null) {
+                return null;
+            }
+            try {
+                sheets.add(new PDFSpriteSheet(image, new JSONObject(layout.getString())));
+            } catch (IOException e) {
+                return null;
             }
         }
+        return sheets;
+    }
+
+    protected String getSpriteSheetKey(String documentKey, List<Integer> sheetPages, int columns) {
+        return documentKey + "-sprite-" + PDFTools.toPageRange(sheetPages) + "-c" + columns + "-"
+                + getThumbnailVariant();
+    }
+
+    protected PDFSpriteSheet buildSpriteSheet(List<Blob> thumbnails, List<Integer> sheetPages, int columns)
+            throws IOException {
+
+        BufferedImage[] images = new BufferedImage[thumbnails.size()];
+        int cellWidth = 0;
+        int cellHeight = 0;
+        for (int i = 0; i < images.length; i++) {
+            try (InputStream in = thumbnails.get(i).getStream()) {
+                images[i] = ImageIO.read(in);
+            }
+            if (images[i] == null) {
+                throw new IOException("Cannot decode the thumbnail of page " + sheetPages.get(i));
+            }
+            cellWidth = Math.max(cellWidth, images[i].getWidth());
+            cellHeight = Math.max(cellHeight, images[i].getHeight());
+        }
+        // Align on the JPEG MCUs (16x16 with chroma subsampling)
+        cellWidth = (cellWidth + 15) / 16 * 16;
+        cellHeight = (cellHeight + 15) / 16 * 16;
+
+        int cols = Math.min(columns, images.length);
+        int rows = (images.length + cols - 1) / cols;
+        BufferedImage sheet = new BufferedImage(cols * cellWidth, rows * cellHeight, BufferedImage.TYPE_INT_RGB);
+
+        JSONArray pages = new JSONArray();
+        Graphics2D g2d = sheet.createGraphics();
+        try {
+            g2d.setColor(Color.WHITE);
+            g2d.fillRect(0, 0, sheet.getWidth(), sheet.getHeight());
+            for (int i = 0; i < images.length; i++) {
+                int x = (i % cols) * cellWidth;
+                int y = (i / cols) * cellHeight;
+                g2d.drawImage(images[i], x, y, null);
+
+                JSONObject page = new JSONObject();
+                page.put("page", sheetPages.get(i));
+                page.put("x", x);
+                page.put("y", y);
+                page.put("width", images[i].getWidth());
+                page.put("height", images[i].getHeight());
+                pages.put(page);
+            }
+        } finally {
+            g2d.dispose();
+        }
+
+        JSONObject layout = new JSONObject();
+        layout.put("width", sheet.getWidth());
+        layout.put("height", sheet.getHeight());
+        layout.put("pages", pages);
 
+        String fileNameNoExt = PDFTools.getFileNameNoExtension(pdfBlob, "pdf-img",
+                "-sprite-" + PDFTools.toPageRange(sheetPages));
+        Blob image = encoder.toBlob(sheet, "jpg", fileNameNoExt, ".jpg", "image/jpeg");
+
+        return new PDFSpriteSheet(image, layout);
     }
 
     // ========================================
     // Utilities
     // ========================================
+    /**
+     * Render the page so it fits in maxWidth x maxHeight, never above maxDpi.
+     * 
+     * @param renderer
+     * @param page
+     * @param pageIndex 0-based
+     * @param maxWidth
+     * @param maxHeight
+     * @param maxDpi
+     * @return
+     * @throws IOException
+     */
+    protected BufferedImage renderPage(PDFRenderer renderer, PDPage page, int pageIndex, int maxWidth, int maxHeight,
+            int maxDpi) throws IOException {
+
+        return renderPage(renderer, page, pageIndex, maxWidth, maxHeight, maxDpi,
+                getPageColorMode(renderer, page, pageIndex));
+    }
+
+    /**
+     * @param pageColorMode the color mode of the page (RGB, GRAY or BINARY), see getPageColorMode()
+     */
+    protected BufferedImage renderPage(PDFRenderer renderer, PDPage page, int pageIndex, int maxWidth, int maxHeight,
+            int maxDpi, PDFColorMode pageColorMode) throws IOException {
+
+        float scale = getScaleToFit(page, maxWidth, maxHeight, maxDpi);
+        ImageType imageType = getImageType(pageColorMode, scale);
+        // 1-bit images are not scaled: scale in gray, then convert
+        ImageType scaledType = imageType == ImageType.BINARY ? ImageType.GRAY : imageType;
+
+        if (!fitToSize) {
+            BufferedImage pageImage = renderer.renderImageWithDPI(pageIndex, maxDpi, scaledType);
+            return toImageType(scaleToFit(pageImage, maxWidth, maxHeight), imageType);
+        }
+
+        if (supersampling) {
+            float superScale = Math.min(scale * 2, maxDpi / 72f);
+            if (superScale > scale) {
+                BufferedImage pageImage = renderer.renderImage(pageIndex, superScale, scaledType);
+                return toImageType(scaleToFit(pageImage, maxWidth, maxHeight), imageType);
+            }
+        }
+
+        return renderer.renderImage(pageIndex, scale, imageType);
+    }
+
+    /**
+     * @return the color mode of the page: colorMode, or, if it is AUTO, RGB, GRAY or BINARY depending on the page
+     * @throws IOException
+     */
+    protected PDFColorMode getPageColorMode(PDFRenderer renderer, PDPage page, int pageIndex) throws IOException {
+
+        if (colorMode != PDFColorMode.AUTO) {
+            return colorMode;
+        }
+
+        // Small render without antialiasing, so black and white content (text, lines) stays black and white
+        RenderingHints hints = new RenderingHints(RenderingHints.KEY_ANTIALIASING,
+                RenderingHints.VALUE_ANTIALIAS_OFF);
+        hints.put(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+        hints.put(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        hints.put(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+
+        BufferedImage sample;
+        RenderingHints previousHints = renderer.getRenderingHints();
+        renderer.setRenderingHints(hints);
+        try {
+            float scale = getScaleToFit(page, AUTO_SAMPLE_SIZE, AUTO_SAMPLE_SIZE, 72);
+            sample = renderer.renderImage(pageIndex, scale, ImageType.RGB);
+        } finally {
+            renderer.setRenderingHints(previousHints);
+        }
+
+        int w = sample.getWidth();
+        int h = sample.getHeight();
+        int[] pixels = sample.getRGB(0, 0, w, h, null, 0, w);
+        int midTones = 0;
+        for (int rgb : pixels) {
+            int r = (rgb >> 16) & 0xFF;
+            int g = (rgb >> 8) & 0xFF;
+            int b = rgb & 0xFF;
+            int max = Math.max(r, Math.max(g, b));
+            int min = Math.min(r, Math.min(g, b));
+            if (max - min > AUTO_COLOR_TOLERANCE) {
+                return PDFColorMode.RGB;
+            }
+            if (max > 64 && max < 192) {
+                midTones++;
+            }
+        }
+
+        return midTones > pixels.length * AUTO_MAX_MIDTONE_RATIO ? PDFColorMode.GRAY : PDFColorMode.BINARY;
+    }
+
+    /**
+     * @param pageColorMode RGB, GRAY or BINARY
+     * @param scale the scale of the image
+     * @return the ImageType to use
+     */
+    protected ImageType getImageType(PDFColorMode pageColorMode, float scale) {
+
+        switch (pageColorMode) {
+        case GRAY:
+            return ImageType.GRAY;
+        case BINARY:
+            if (colorMode == PDFColorMode.AUTO && scale < AUTO_BINARY_MIN_SCALE) {
+                return ImageType.GRAY;
+            }
+            return ImageType.BINARY;
+        default:
+            return ImageType.RGB;
+        }
+    }
+
+    /**
+     * Only converts to 1-bit (threshold, no dithering), other images are returned as is.
+     */
+    protected static BufferedImage toImageType(BufferedImage img, ImageType imageType) {
+
+        if (imageType != ImageType.BINARY || img.getType() == BufferedImage.TYPE_BYTE_BINARY) {
+            return img;
+        }
+
+        BufferedImage dst = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_BYTE_BINARY);
+        Graphics2D g2d = dst.createGraphics();
+        try {
+            g2d.setRenderingHint(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_DISABLE);
+            g2d.drawImage(img, 0, 0, null);
+        } finally {
+            g2d.dispose();
+        }
+        return dst;
+    }
+
+    /**
+     * Return the PDFBox scale (1 = 72 DPI) to use so the rendered page fits in maxWidth x maxHeight. Uses the same box
+     * as PDFRenderer (the CropBox) and takes the page rotation into account. The result is never above maxDpi.
+     * 
+     * @param page
+     * @param maxWidth
+     * @param maxHeight
+     * @param maxDpi
+     * @return
+     */
+    public static float getScaleToFit(PDPage page, int maxWidth, int maxHeight, int maxDpi) {
+
+        float maxScale = maxDpi / 72f;
+
+        PDRectangle cropBox = page.getCropBox();
+        float pageWidth = cropBox.getWidth();
+        float pageHeight = cropBox.getHeight();
+        if (page.getRotation() % 180 != 0) {
+            float tmp = pageWidth;
+            pageWidth = pageHeight;
+            pageHeight = tmp;
+        }
+        if (pageWidth <= 0 || pageHeight <= 0) {
+            return maxScale;
+        }
+
+        float scale = Math.min(maxWidth / pageWidth, maxHeight / pageHeight);
+
+        return Math.min(scale, maxScale);
+    }
+
+    /**
+     * 1-bit images are saved as PNG, the other ones as JPEG
+     */
+    protected Blob encodePage(BufferedImage img, int pageNum) throws IOException {
+
+        if (img.getType() == BufferedImage.TYPE_BYTE_BINARY) {
+            return imageToBlob(img, "png", ".png", "image/png", pageNum);
+        }
+        return imageToBlob(img, "jpg", ".jpg", "image/jpeg", pageNum);
+    }
+
     // pageNum starts at 1
     protected Blob imageToBlob(BufferedImage img, String formatName, String fileExtension, String mimeType, int pageNum)
             throws IOException {
 
         String fileNameNoExt = PDFTools.getFileNameNoExtension(pdfBlob, "pdf-img", "-p" + pageNum);
 
-        File resultFile = Framework.createTempFile(fileNameNoExt, fileExtension);
-        ImageIO.write(img, formatName, resultFile);
-
-        FileBlob result = new FileBlob(resultFile);
-        result.setFilename(fileNameNoExt + fileExtension);
-        result.setMimeType(mimeType);
-
-        return result;
+        return encoder.toBlob(img, formatName, fileNameNoExt, fileExtension, mimeType);
 
     }
 
@@ -442,7 +1718,42 @@ public class PDFToImages {
         int newW = (int) Math.round(w * scale);
         int newH = (int) Math.round(h * scale);
 
-        BufferedImage dst = new BufferedImage(newW, newH, BufferedImage.TYPE_INT_RGB);
+        return resize(src, newW, newH);
+    }
+
+    /**
+     * Resize the image (gray images stay gray, other images become RGB). When reducing by more than half, the image is
+     * first halved as many times as needed, so the bilinear interpolation still uses all the source pixels (no aliasing
+     * when deriving small images from a big raster).
+     * 
+     * @param src
+     * @param newW
+     * @param newH
+     * @return
+     */
+    public static BufferedImage resize(BufferedImage src, int newW, int newH) {
+
+        BufferedImage current = src;
+        int w = src.getWidth();
+        int h = src.getHeight();
+        while (w / 2 >= newW && h / 2 >= newH) {
+            w /= 2;
+            h /= 2;
+            current = drawScaled(current, w, h);
+        }
+
+        if (current != src && w == newW && h == newH) {
+            return current;
+        }
+        return drawScaled(current, newW, newH);
+    }
+
+    protected static BufferedImage drawScaled(BufferedImage src, int newW, int newH) {
+
+        int type = src.getType() == BufferedImage.TYPE_BYTE_GRAY || src.getType() == BufferedImage.TYPE_BYTE_BINARY
+                ? BufferedImage.TYPE_BYTE_GRAY
+                : BufferedImage.TYPE_INT_RGB;
+        BufferedImage dst = new BufferedImage(newW, newH, type);
         Graphics2D g2d = dst.createGraphics();
         try {
             g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
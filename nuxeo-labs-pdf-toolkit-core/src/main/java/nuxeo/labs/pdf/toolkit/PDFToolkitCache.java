@@ -0,0 +1,375 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.StringUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.blob.ManagedBlob;
+import org.nuxeo.ecm.core.transientstore.api.TransientStore;
+import org.nuxeo.ecm.core.transientstore.api.TransientStoreService;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Access to the PDFToolkitCache TransientStore.
+ * <br>
+ * Every rendered image is stored in its own entry, keyed by (PDF, page, rendering variant). The variant describes
+ * everything that changes the resulting image (size, dpi, ...), so a cache hit always returns the expected image, and
+ * a request for some pages can reuse the pages rendered by a previous request.
+ * <br>
+ * Each PDF also has a small manifest entry, holding its page count, so we know which page entries to look for
+ * without loading the PDF.
+ * <br>
+ * An in-heap cache, {@link PDFToolkitL1Cache}, sits in front of the TransientStore. Optionally, a durable tier,
+ * {@link PDFDurableStore}, sits behind it.
+ * <br>
+ * Concurrent renders of the same images are coalesced (see {@link #renderOnce(String, Supplier)}).
+ */
+public class PDFToolkitCache {
+
+    public static final String TRANSIENT_STORE_NAME = "PDFToolkitCache";
+
+    protected static final String MANIFEST_SUFFIX = "-manifest";
+
+    protected static final String PAGE_COUNT_PARAMETER = "pageCount";
+
+    protected static final String STARTED_AT_PARAMETER = "startedAt";
+
+    protected static final String TIMEOUT_SUFFIX = "-timeout";
+
+    protected static final String TIMED_OUT_AT_PARAMETER = "timedOutAt";
+
+    protected static final String SOURCE_SUFFIX = "-source";
+
+    /**
+     * Max time (in seconds) a request waits for the same render running in another request before rendering by
+     * itself. Also the time after which a render marker left by another node is considered stale.
+     */
+    public static final String RENDER_WAIT_TIMEOUT_PROPERTY = "nuxeo.pdftoolkit.render.wait.timeout";
+
+    public static final int DEFAULT_RENDER_WAIT_TIMEOUT = 120;
+
+    protected static final long POLL_INTERVAL_MS = 250;
+
+    // Renders in progress in this JVM
+    protected static final ConcurrentMap<String, CompletableFuture<Void>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    protected TransientStore store;
+
+    protected PDFToolkitL1Cache l1Cache;
+
+    // Null if not enabled
+    protected PDFDurableStore durableStore;
+
+    public PDFToolkitCache() {
+        TransientStoreService transientStoreService = Framework.getService(TransientStoreService.class);
+        store = transientStoreService.getStore(TRANSIENT_STORE_NAME);
+        l1Cache = PDFToolkitL1Cache.getInstance();
+        durableStore = PDFDurableStore.getIfEnabled();
+    }
+
+    /**
+     * Returns the key identifying the PDF itself, used as prefix of all its entries.
+     *
+     * @param pdfBlob
+     * @return the key, or null if the blob can't be identified (no digest, no key, no file name)
+     */
+    public static String getDocumentKey(Blob pdfBlob) {
+
+        String key = pdfBlob.getDigest();
+        if (StringUtils.isNotBlank(key)) {
+            return key;
+        }
+        if (pdfBlob instanceof ManagedBlob) {
+            key = ((ManagedBlob) pdfBlob).getKey();
+        }
+        if (StringUtils.isNotBlank(key)) {
+            return key;
+        }
+
+        String fileName = pdfBlob.getFilename();
+        long length = pdfBlob.getLength();
+        if (StringUtils.isNotBlank(fileName)) {
+            return fileName + "-" + length;
+        }
+
+        // No digest, no key, no filename : what the hell is this blob? :-)
+        // (likely something from a unit test)
+        return null;
+    }
+
+    /**
+     * @param documentKey
+     * @param pageNum 1-based
+     * @param variant
+     * @return the key of the image of this page for this variant
+     */
+    public static String getPageKey(String documentKey, int pageNum, String variant) {
+        return documentKey + "-p" + pageNum + "-" + variant;
+    }
+
+    public static String getManifestKey(String documentKey) {
+        return documentKey + MANIFEST_SUFFIX;
+    }
+
+    /**
+     * @param key
+     * @return the cached blob, null if not in the cache
+     */
+    public Blob getBlob(String key) {
+
+        Blob blob = l1Cache.getBlob(key);
+        if (blob != null) {
+            return blob;
+        }
+
+        List<Blob> blobs = store.exists(key) ? store.getBlobs(key) : null;
+        if (blobs == null || blobs.isEmpty()) {
+            return getDurableBlob(key);
+        }
+        blob = blobs.get(0);
+        l1Cache.putBlob(key, blob);
+        return blob;
+    }
+
+    /**
+     * @return the blob from the durable tier (see {@link PDFDurableStore}), put back in the TransientStore and the L1
+     *         cache. Null if not found, or if there is no durable tier
+     */
+    protected Blob getDurableBlob(String key) {
+
+        if (durableStore == null || !PDFDurableStore.accepts(key)) {
+            return null;
+        }
+        Blob blob = durableStore.getBlob(key);
+        if (blob != null) {
+            store.putBlobs(key, Collections.singletonList(blob));
+            store.setCompleted(key, true);
+            l1Cache.putBlob(key, blob);
+        }
+        return blob;
+    }
+
+    public void putBlob(String key, Blob blob) {
+        putBlob(key, blob, true);
+    }
+
+    /**
+     * @param key
+     * @param blob
+     * @param durable if false, the blob is not stored in the durable tier (see {@link PDFDurableStore}), typically
+     *            because it is a lower quality image
+     */
+    public void putBlob(String key, Blob blob, boolean durable) {
+        store.putBlobs(key, Collections.singletonList(blob));
+        store.setCompleted(key, true);
+        l1Cache.putBlob(key, blob);
+        if (durable && durableStore != null && PDFDurableStore.accepts(key)) {
+            durableStore.putBlob(key, blob);
+        }
+    }
+
+    /**
+     * @param documentKey
+     * @return the page count stored in the manifest of the PDF, -1 if unknown
+     */
+    public int getPageCount(String documentKey) {
+
+        String manifestKey = getManifestKey(documentKey);
+        int pageCount = l1Cache.getPageCount(manifestKey);
+        if (pageCount >= 0) {
+            return pageCount;
+        }
+
+        Serializable value = store.getParameter(manifestKey, PAGE_COUNT_PARAMETER);
+        if (value instanceof Number) {
+            pageCount = ((Number) value).intValue();
+            l1Cache.putPageCount(manifestKey, pageCount);
+            return pageCount;
+        }
+
+        if (durableStore != null && PDFDurableStore.isDigest(documentKey)) {
+            pageCount = durableStore.getPageCount(documentKey);
+            if (pageCount >= 0) {
+                store.putParameter(manifestKey, PAGE_COUNT_PARAMETER, pageCount);
+                store.setCompleted(manifestKey, true);
+                l1Cache.putPageCount(manifestKey, pageCount);
+                return pageCount;
+            }
+        }
+        return -1;
+    }
+
+    public void putPageCount(String documentKey, int pageCount) {
+        String manifestKey = getManifestKey(documentKey);
+        store.putParameter(manifestKey, PAGE_COUNT_PARAMETER, pageCount);
+        store.setCompleted(manifestKey, true);
+        l1Cache.putPageCount(manifestKey, pageCount);
+        if (durableStore != null && PDFDurableStore.isDigest(documentKey)) {
+            durableStore.putPageCount(documentKey, pageCount);
+        }
+    }
+
+    /**
+     * Flag the image as too long to render (see {@link PDFBudgetedRenderer}), so the next requests don't try again
+     * and return a placeholder, until it is rendered in the background (or the flag expires with the TransientStore
+     * TTL).
+     *
+     * @param key the key of the image
+     */
+    public void markTimedOut(String key) {
+        store.putParameter(key + TIMEOUT_SUFFIX, TIMED_OUT_AT_PARAMETER, System.currentTimeMillis());
+        store.setCompleted(key + TIMEOUT_SUFFIX, true);
+    }
+
+    public boolean isTimedOut(String key) {
+        return store.exists(key + TIMEOUT_SUFFIX);
+    }
+
+    public void clearTimedOut(String key) {
+        store.remove(key + TIMEOUT_SUFFIX);
+    }
+
+    /**
+     * Keep the PDF itself, for the renders done in the background, which may run on another node, when they can't read
+     * it from a document or a blob provider (see {@link PDFBlobReference}). Not kept in the L1 cache.
+     *
+     * @param documentKey
+     * @param pdfBlob
+     */
+    public void putSource(String documentKey, Blob pdfBlob) {
+
+        String key = documentKey + SOURCE_SUFFIX;
+        if (!store.exists(key)) {
+            store.putBlobs(key, Collections.singletonList(pdfBlob));
+            store.setCompleted(key, true);
+        }
+    }
+
+    /**
+     * @param documentKey
+     * @return the PDF stored by putSource(), null if not found (or expired)
+     */
+    public Blob getSource(String documentKey) {
+
+        List<Blob> blobs = store.getBlobs(documentKey + SOURCE_SUFFIX);
+        return blobs == null || blobs.isEmpty() ? null : blobs.get(0);
+    }
+
+    /**
+     * @param documentKey
+     * @param variant
+     * @return the key identifying the render of pages of a PDF for a variant, to be used with renderOnce()
+     */
+    public static String getRenderKey(String documentKey, String variant) {
+        return documentKey + "-render-" + variant;
+    }
+
+    /**
+     * Run the render, which is expected to put its results in the cache, unless the same render is already running.
+     * <br>
+     * If it runs in this JVM, waits for it to finish. If it runs on another node of the cluster (we can tell since
+     * the render in progress is flagged in the TransientStore), waits for it to finish. Then run the render, which
+     * should now find everything in the cache.
+     * <br>
+     * Waiting is bound by {@code nuxeo.pdftoolkit.render.wait.timeout}: after this delay, the caller renders by
+     * itself.
+     *
+     * @param renderKey
+     * @param render
+     * @return the result of the render
+     */
+    public <T> T renderOnce(String renderKey, Supplier<T> render) {
+
+        long timeoutMs = getRenderWaitTimeout() * 1000L;
+
+        CompletableFuture<Void> mine = new CompletableFuture<>();
+        CompletableFuture<Void> inFlight = IN_FLIGHT.putIfAbsent(renderKey, mine);
+        if (inFlight != null) {
+            try {
+                inFlight.get(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NuxeoException("Interrupted while waiting for " + renderKey, e);
+            } catch (ExecutionException | TimeoutException e) {
+                // Render by ourselves
+            }
+            return render.get();
+        }
+
+        try {
+            waitForOtherNode(renderKey, timeoutMs);
+
+            store.putParameter(renderKey, STARTED_AT_PARAMETER, System.currentTimeMillis());
+            store.setCompleted(renderKey, false);
+            try {
+                return render.get();
+            } finally {
+                store.remove(renderKey);
+            }
+        } finally {
+            IN_FLIGHT.remove(renderKey, mine);
+            mine.complete(null);
+        }
+    }
+
+    protected void waitForOtherNode(String renderKey, long timeoutMs) {
+
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (System.currentTimeMillis() < deadline && store.exists(renderKey) && !store.isCompleted(renderKey)) {
+            Serializable startedAt = store.getParameter(renderKey, STARTED_AT_PARAMETER);
+            if (!(startedAt instanceof Number)
+                    || System.currentTimeMillis() - ((Number) startedAt).longValue() > timeoutMs) {
+                // Stale marker (node stopped while rendering?)
+                return;
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NuxeoException("Interrupted while waiting for " + renderKey, e);
+            }
+        }
+    }
+
+    protected static int getRenderWaitTimeout() {
+
+        String value = Framework.getProperty(RENDER_WAIT_TIMEOUT_PROPERTY);
+        if (StringUtils.isNotBlank(value)) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                // Ignore, use default
+            }
+        }
+        return DEFAULT_RENDER_WAIT_TIMEOUT;
+    }
+
+}
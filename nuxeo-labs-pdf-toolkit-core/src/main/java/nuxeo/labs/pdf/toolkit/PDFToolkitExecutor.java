@@ -0,0 +1,76 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads shared by all the parallel work of the toolkit on this node (rendering the pages of a PDF, writing the
+ * outputs of a split): a single pool of one thread per processor, so concurrent requests queue their tasks instead of
+ * each one starting its own threads.
+ * <br>
+ * The parallelism of one request is capped by {@code nuxeo.pdftoolkit.rendering.parallelism} and by the number of
+ * processors, whatever the caller asks (see {@link #clampParallelism(int)}).
+ */
+public class PDFToolkitExecutor {
+
+    protected static ExecutorService executor;
+
+    private PDFToolkitExecutor() {
+        // Static only
+    }
+
+    /**
+     * @return the shared pool
+     */
+    public static synchronized ExecutorService getExecutor() {
+
+        if (executor == null) {
+            AtomicInteger count = new AtomicInteger();
+            ThreadFactory threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, "pdftoolkit-worker-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), threadFactory);
+        }
+        return executor;
+    }
+
+    /**
+     * @return the max. number of threads a single request can use
+     */
+    public static int getMaxParallelism() {
+        return Math.max(1, Math.min(PDFToImages.getConfiguredParallelism(), Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param requested number of threads asked by the caller, <= 0 => the configured value
+     * @return requested, between 1 and {@link #getMaxParallelism()}
+     */
+    public static int clampParallelism(int requested) {
+
+        int max = getMaxParallelism();
+        return requested > 0 ? Math.min(requested, max) : max;
+    }
+
+}
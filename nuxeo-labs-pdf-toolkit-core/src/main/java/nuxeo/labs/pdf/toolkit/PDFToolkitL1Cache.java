@@ -0,0 +1,223 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * In-heap cache in front of the PDFToolkitCache TransientStore, bounded by the total size of the cached images, LRU
+ * eviction.
+ * <br>
+ * It uses the same keys as {@link PDFToolkitCache} and holds the encoded bytes of the images, so a hot PDF is served
+ * without touching the TransientStore (which can be Redis, a key/value store, ...) or the disk.
+ * <br>
+ * The max size is set by {@code nuxeo.pdftoolkit.l1cache.maxSizeMB} (default 32). 0 disables the cache.
+ */
+public class PDFToolkitL1Cache {
+
+    public static final String MAX_SIZE_PROPERTY = "nuxeo.pdftoolkit.l1cache.maxSizeMB";
+
+    public static final int DEFAULT_MAX_SIZE_MB = 32;
+
+    // Rough estimation of the heap used by an entry, in addition to its bytes
+    protected static final int ENTRY_OVERHEAD = 256;
+
+    protected static PDFToolkitL1Cache instance;
+
+    protected final long maxSizeBytes;
+
+    protected final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    protected long sizeBytes = 0;
+
+    protected long hits = 0;
+
+    protected long misses = 0;
+
+    protected long evictions = 0;
+
+    protected static class Entry {
+
+        protected final byte[] bytes;
+
+        protected final String fileName;
+
+        protected final String mimeType;
+
+        protected final int pageCount;
+
+        protected Entry(byte[] bytes, String fileName, String mimeType, int pageCount) {
+            this.bytes = bytes;
+            this.fileName = fileName;
+            this.mimeType = mimeType;
+            this.pageCount = pageCount;
+        }
+
+        protected long getSize() {
+            return ENTRY_OVERHEAD + (bytes == null ? 0 : bytes.length);
+        }
+    }
+
+    protected PDFToolkitL1Cache(long maxSizeBytes) {
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    public static synchronized PDFToolkitL1Cache getInstance() {
+
+        if (instance == null) {
+            long maxSizeMB = DEFAULT_MAX_SIZE_MB;
+            String value = Framework.getProperty(MAX_SIZE_PROPERTY);
+            if (StringUtils.isNotBlank(value)) {
+                try {
+                    maxSizeMB = Long.parseLong(value.trim());
+                } catch (NumberFormatException e) {
+                    // Ignore, use default
+                }
+            }
+            instance = new PDFToolkitL1Cache(Math.max(maxSizeMB, 0) * 1024 * 1024);
+        }
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return maxSizeBytes > 0;
+    }
+
+    /**
+     * @param key
+     * @return a new Blob (in memory) with the cached bytes, null if not in the cache
+     */
+    public Blob getBlob(String key) {
+
+        Entry entry = get(key);
+        if (entry == null || entry.bytes == null) {
+            return null;
+        }
+        Blob blob = Blobs.createBlob(entry.bytes, entry.mimeType);
+        blob.setFilename(entry.fileName);
+        return blob;
+    }
+
+    /**
+     * Reads the bytes of the blob and caches them. Does nothing if the blob is bigger than the whole cache.
+     *
+     * @param key
+     * @param blob
+     */
+    public void putBlob(String key, Blob blob) {
+
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            byte[] bytes = blob.getByteArray();
+            put(key, new Entry(bytes, blob.getFilename(), blob.getMimeType(), -1));
+        } catch (IOException e) {
+            // Not cached in L1, no big deal
+        }
+    }
+
+    /**
+     * @param key
+     * @return the cached page count, -1 if not in the cache
+     */
+    public int getPageCount(String key) {
+
+        Entry entry = get(key);
+        return entry == null ? -1 : entry.pageCount;
+    }
+
+    public void putPageCount(String key, int pageCount) {
+
+        if (isEnabled()) {
+            put(key, new Entry(null, null, null, pageCount));
+        }
+    }
+
+    protected synchronized Entry get(String key) {
+
+        if (!isEnabled()) {
+            return null;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    protected synchronized void put(String key, Entry entry) {
+
+        long entrySize = entry.getSize();
+        if (entrySize > maxSizeBytes) {
+            return;
+        }
+
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            sizeBytes -= previous.getSize();
+        }
+        sizeBytes += entrySize;
+
+        // Least recently used first
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (sizeBytes > maxSizeBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getValue() == entry) {
+                continue;
+            }
+            sizeBytes -= eldest.getValue().getSize();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    /**
+     * @return hits, misses, evictions, entries, sizeBytes and maxSizeBytes
+     */
+    public synchronized JSONObject getStatistics() {
+
+        JSONObject stats = new JSONObject();
+        stats.put("enabled", isEnabled());
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("entries", entries.size());
+        stats.put("sizeBytes", sizeBytes);
+        stats.put("maxSizeBytes", maxSizeBytes);
+        return stats;
+    }
+
+}
@@ -21,12 +21,14 @@ package nuxeo.labs.pdf.toolkit;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Set;
 import java.util.TreeSet;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
@@ -84,6 +86,9 @@ public class PDFTools {
 
     /**
      * Centralize the same code used in several places.
+     * <br>
+     * Unless disabled by configuration, the PDF is optimized first (unused and duplicate fonts/XObjects, see
+     * {@link PDFOutputOptimizer}) and written with compressed object streams.
      * 
      * @param source
      * @param newPdf
@@ -98,7 +103,12 @@ public class PDFTools {
         String fileNameNoExt = PDFTools.getFileNameNoExtension(source, defaultNameNoExt, suffixBeforeExt);
 
         File tempFile = File.createTempFile(fileNameNoExt, ".pdf");
-        newPdf.save(tempFile);
+        if (PDFOutputOptimizer.isEnabled() && !newPdf.isEncrypted()) {
+            new PDFOutputOptimizer(newPdf).optimize();
+            newPdf.save(tempFile, CompressParameters.DEFAULT_COMPRESSION);
+        } else {
+            newPdf.save(tempFile);
+        }
         Blob finalBlob = new FileBlob(tempFile);
         finalBlob.setFilename(fileNameNoExt + ".pdf");
         finalBlob.setMimeType("application/pdf");
@@ -166,6 +176,42 @@ public class PDFTools {
         return pages;
     }
 
+    /**
+     * The reverse of parsePageRange: format sorted page numbers as a print-style range.
+     * 
+     * @param pages 1-based, sorted
+     * @return e.g. "3-6,8,12-14"
+     */
+    public static String toPageRange(Collection<Integer> pages) {
+        StringBuilder range = new StringBuilder();
+        int start = -1;
+        int previous = -1;
+        for (int page : pages) {
+            if (start < 0) {
+                start = page;
+            } else if (page != previous + 1) {
+                appendSegment(range, start, previous);
+                start = page;
+            }
+            previous = page;
+        }
+        if (start >= 0) {
+            appendSegment(range, start, previous);
+        }
+
+        return range.toString();
+    }
+
+    protected static void appendSegment(StringBuilder range, int start, int end) {
+        if (range.length() > 0) {
+            range.append(',');
+        }
+        range.append(start);
+        if (end != start) {
+            range.append('-').append(end);
+        }
+    }
+
     /**
      * Throws error if the page is not a valid number (starting at 1)
      * 
@@ -0,0 +1,121 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit.listeners;
+
+import org.apache.commons.lang3.StringUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventContext;
+import org.nuxeo.ecm.core.event.EventListener;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.ecm.core.work.api.WorkQueueMetrics;
+import org.nuxeo.runtime.api.Framework;
+
+import nuxeo.labs.pdf.toolkit.PDFToolkitCache;
+import nuxeo.labs.pdf.toolkit.workers.PDFPreRenderWork;
+
+/**
+ * Pre-render the thumbnails of a PDF when it is stored in a document (creation, or modification of
+ * {@code file:content}), so the first user opening the PDF Toolkit dialog doesn't wait for them. Disabled by default,
+ * see {@code nuxeo.pdftoolkit.prerender.enabled}.
+ * <br>
+ * The listener only schedules a {@link PDFPreRenderWork}, after the commit, on the {@code pdfToolkitRendering} queue
+ * ({@code nuxeo.pdftoolkit.prerender.threads} threads, default 2):
+ * <ul>
+ * <li>A PDF already in the cache (same digest, typically a modification of another field) is not scheduled</li>
+ * <li>The same PDF is scheduled only once at a time (the work id is derived from its digest)</li>
+ * <li>When the queue already holds {@code nuxeo.pdftoolkit.prerender.maxQueuedWorks} works (default 1000), nothing is
+ * scheduled, so a bulk import doesn't flood it: these PDFs are rendered on demand, as usual</li>
+ * </ul>
+ */
+public class PDFPreRenderListener implements EventListener {
+
+    public static final String ENABLED_PROPERTY = "nuxeo.pdftoolkit.prerender.enabled";
+
+    public static final String MAX_QUEUED_WORKS_PROPERTY = "nuxeo.pdftoolkit.prerender.maxQueuedWorks";
+
+    public static final int DEFAULT_MAX_QUEUED_WORKS = 1000;
+
+    public static final String QUEUE_ID = "pdfToolkitRendering";
+
+    public static final String XPATH = "file:content";
+
+    @Override
+    public void handleEvent(Event event) {
+
+        if (!Boolean.parseBoolean(Framework.getProperty(ENABLED_PROPERTY, "false"))) {
+            return;
+        }
+
+        EventContext ctx = event.getContext();
+        if (!(ctx instanceof DocumentEventContext)) {
+            return;
+        }
+        if (!DocumentEventTypes.DOCUMENT_CREATED.equals(event.getName())
+                && !DocumentEventTypes.DOCUMENT_UPDATED.equals(event.getName())) {
+            return;
+        }
+
+        DocumentModel doc = ((DocumentEventContext) ctx).getSourceDocument();
+        if (doc == null || doc.isProxy() || doc.isVersion() || !doc.hasSchema("file")) {
+            return;
+        }
+
+        Blob blob = (Blob) doc.getPropertyValue(XPATH);
+        if (blob == null || !"application/pdf".equals(blob.getMimeType())) {
+            return;
+        }
+
+        String documentKey = PDFToolkitCache.getDocumentKey(blob);
+        if (documentKey == null || new PDFToolkitCache().getPageCount(documentKey) >= 0) {
+            return;
+        }
+
+        WorkManager workManager = Framework.getService(WorkManager.class);
+        if (isQueueFull(workManager)) {
+            return;
+        }
+
+        workManager.schedule(new PDFPreRenderWork(doc.getRepositoryName(), doc.getId(), XPATH, documentKey),
+                WorkManager.Scheduling.IF_NOT_SCHEDULED, true);
+    }
+
+    protected boolean isQueueFull(WorkManager workManager) {
+
+        int max = DEFAULT_MAX_QUEUED_WORKS;
+        String value = Framework.getProperty(MAX_QUEUED_WORKS_PROPERTY);
+        if (StringUtils.isNotBlank(value)) {
+            try {
+                max = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                // Ignore, use default
+            }
+        }
+        if (max <= 0) {
+            return false;
+        }
+
+        WorkQueueMetrics metrics = workManager.getMetrics(QUEUE_ID);
+        return metrics.getScheduled().longValue() + metrics.getRunning().longValue() >= max;
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit.operations;
+
+import org.json.JSONObject;
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+
+import nuxeo.labs.pdf.toolkit.PDFDocumentCache;
+import nuxeo.labs.pdf.toolkit.PDFRangedSource;
+import nuxeo.labs.pdf.toolkit.PDFResourceCache;
+import nuxeo.labs.pdf.toolkit.PDFToolkitL1Cache;
+
+/**
+ * An operation that returns the statistics of the in-heap caches of this node.
+ */
+@Operation(id = PDFCacheStatisticsOp.ID, category = Constants.CAT_CONVERSION, label = "PDF Toolkit Cache Statistics", description = ""
+        + "Returns a JSON object with the statistics of the in-heap (L1) cache of thumbnails and previews, for the"
+        + " current node: enabled, hits, misses, evictions, entries, sizeBytes and maxSizeBytes."
+        + " Also returns the same values for the cache of parsed PDFs (documentCache), and the hits, misses and"
+        + " evictions of the caches of parsed fonts, images, ... of these PDFs (resourceCache), and the requests, bytes"
+        + " and block cache hits of the PDFs read by HTTP ranges (rangedReads).")
+public class PDFCacheStatisticsOp {
+
+    public static final String ID = "PDFLabs.GetCacheStatistics";
+
+    @OperationMethod
+    public Blob run() {
+
+        JSONObject stats = new JSONObject();
+        stats.put("l1Cache", PDFToolkitL1Cache.getInstance().getStatistics());
+        stats.put("documentCache", PDFDocumentCache.getInstance().getStatistics());
+        stats.put("resourceCache", PDFResourceCache.getStatistics());
+        stats.put("rangedReads", PDFRangedSource.getStatistics());
+
+        return Blobs.createJSONBlob(stats.toString());
+
+    }
+}
@@ -40,6 +40,7 @@ import nuxeo.labs.pdf.toolkit.PDFToImages;
 @Operation(id = PDFJpegimagePreviewOp.ID, category = Constants.CAT_CONVERSION, label = "PDF Jpeg Image Preview", description = ""
         + "Input is either a Blob or a document. If a document, xpath is the field to use, file:content by default."
         + " pageNumber is an integer, starting at 1. Result jpeg is max 1024x1024, dpi 300."
+        + " colorMode is optional: rgb (default), gray, binary (1-bit PNG instead of JPEG) or auto (chosen from the page)."
         + " asBase64 is boolean, optional. If true, returns a text/plain blob with the base64")
 public class PDFJpegimagePreviewOp {
 
@@ -54,21 +55,28 @@ public class PDFJpegimagePreviewOp {
     @Param(name = "pageNumber", required = true)
     protected Integer pageNumber;
     
+    @Param(name = "colorMode", required = false)
+    protected String colorMode;
+
     @Param(name = "asBase64", required = false)
     protected Boolean asBase64 = false;
 
     @OperationMethod
     public Blob run(DocumentModel doc) {
 
-        Blob b = (Blob) doc.getPropertyValue(xpath);
-
-        return run(b);
+        // Not just the blob: a page rendered later in the background is then read from the document
+        return getPreview(new PDFToImages(doc, xpath));
     }
 
     @OperationMethod
     public Blob run(Blob blob) {
 
-        PDFToImages pageExtractor = new PDFToImages(blob);
+        return getPreview(new PDFToImages(blob));
+    }
+
+    protected Blob getPreview(PDFToImages pageExtractor) {
+
+        pageExtractor.setColorMode(colorMode);
 
         Blob jpeg = pageExtractor.getJpegPreviewImage(pageNumber);
         
@@ -0,0 +1,84 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit.operations;
+
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+
+import nuxeo.labs.pdf.toolkit.PDFDestinationHandler;
+import nuxeo.labs.pdf.toolkit.PDFPagePlan;
+
+/**
+ * An operation that extracts, removes, reorders and rotates pages of a PDF in one pass.
+ */
+@Operation(id = PDFPagePlanOp.ID, category = Constants.CAT_CONVERSION, label = "PDF Apply Page Plan", description = ""
+        + "Input is either a Blob or a document. If a document, xpath is the field to use, file:content by default."
+        + " planJsonStr is a JSON array as string, required: the ordered pages of the result, each one being"
+        + " {\"page\": page number in the input PDF, \"rotation\": optional, multiple of 90, \"delete\": optional boolean}"
+        + " (a number alone is the same as {\"page\": number}). Pages not listed or deleted are not in the result."
+        + " For example, [3, {\"page\": 1, \"rotation\": 90}, {\"page\": 2, \"delete\": true}] => page 3, then page 1"
+        + " rotated, page 2 and the others removed. The PDF is loaded and saved once, whatever the number of changes."
+        + " destinationJsonStr is a JSON object telling the operation what to do with the pdf. Not passed => download."
+        + " See documentation for details.")
+public class PDFPagePlanOp {
+
+    public static final String ID = "PDFLabs.ApplyPagePlan";
+
+    @Context
+    protected CoreSession session;
+
+    @Param(name = "xpath", required = false)
+    protected String xpath = "file:content";
+
+    @Param(name = "planJsonStr", required = true)
+    protected String planJsonStr;
+
+    @Param(name = "destinationJsonStr", required = false)
+    protected String destinationJsonStr;
+
+    protected DocumentModel doc = null;
+
+    @OperationMethod
+    public Blob run(DocumentModel doc) {
+
+        Blob b = (Blob) doc.getPropertyValue(xpath);
+
+        this.doc = doc;
+        return run(b);
+    }
+
+    @OperationMethod
+    public Blob run(Blob blob) {
+
+        PDFPagePlan pagePlan = new PDFPagePlan(blob);
+        Blob resultPdf = pagePlan.applyPlan(planJsonStr);
+
+        PDFDestinationHandler destHandler = new PDFDestinationHandler(doc, resultPdf, destinationJsonStr);
+        Blob result = destHandler.run();
+
+        return result;
+
+    }
+}
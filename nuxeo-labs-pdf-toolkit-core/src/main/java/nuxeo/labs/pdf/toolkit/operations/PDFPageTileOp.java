@@ -0,0 +1,109 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit.operations;
+
+import java.io.IOException;
+import java.util.Base64;
+
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoException;
+
+import nuxeo.labs.pdf.toolkit.PDFPageTiles;
+
+/**
+ * An operation that returns one tile of a deep-zoom preview of a page, or the description of its zoom levels.
+ */
+@Operation(id = PDFPageTileOp.ID, category = Constants.CAT_CONVERSION, label = "PDF Get Page Tile", description = ""
+        + "Input is either a Blob or a document. If a document, xpath is the field to use, file:content by default."
+        + " pageNumber is an integer, starting at 1. tileSize is optional, 256 by default, between 64 and 1024."
+        + " If level is not passed, returns a JSON object describing the zoom levels of the page:"
+        + " {\"page\", \"tileSize\", \"levels\": [{\"level\", \"scale\", \"width\", \"height\", \"columns\", \"rows\"}, ...]}."
+        + " At level 0, the page fits in one tile, each level doubles the resolution."
+        + " Else, returns the jpeg tile at (x, y) (0-based column and row) of this level."
+        + " asBase64 is boolean, optional. If true, returns a text/plain blob with the base64 of the tile")
+public class PDFPageTileOp {
+
+    public static final String ID = "PDFLabs.GetPageTile";
+
+    @Context
+    protected CoreSession session;
+
+    @Param(name = "xpath", required = false)
+    protected String xpath = "file:content";
+
+    @Param(name = "pageNumber", required = true)
+    protected Integer pageNumber;
+
+    @Param(name = "tileSize", required = false)
+    protected Integer tileSize = PDFPageTiles.DEFAULT_TILE_SIZE;
+
+    @Param(name = "level", required = false)
+    protected Integer level;
+
+    @Param(name = "x", required = false)
+    protected Integer x = 0;
+
+    @Param(name = "y", required = false)
+    protected Integer y = 0;
+
+    @Param(name = "asBase64", required = false)
+    protected Boolean asBase64 = false;
+
+    @OperationMethod
+    public Blob run(DocumentModel doc) {
+
+        Blob b = (Blob) doc.getPropertyValue(xpath);
+
+        return run(b);
+    }
+
+    @OperationMethod
+    public Blob run(Blob blob) {
+
+        PDFPageTiles tiles = new PDFPageTiles(blob, tileSize);
+
+        if (level == null) {
+            return Blobs.createJSONBlob(tiles.getTileInfo(pageNumber).toString());
+        }
+
+        Blob jpeg = tiles.getTile(pageNumber, level, x, y);
+
+        if (asBase64) {
+            byte[] bytes;
+            try {
+                bytes = jpeg.getByteArray();
+            } catch (IOException e) {
+                throw new NuxeoException(e);
+            }
+            String base64 = Base64.getEncoder().encodeToString(bytes);
+            jpeg = Blobs.createBlob(base64);
+        }
+
+        return jpeg;
+
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit.operations;
+
+import org.json.JSONObject;
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+
+import nuxeo.labs.pdf.toolkit.PDFDurableStore;
+import nuxeo.labs.pdf.toolkit.PDFToolkitCache;
+
+/**
+ * Removes from the durable tier of the cache (see {@link PDFDurableStore}) the page images of a PDF, typically when
+ * the PDF is deleted or purged.
+ */
+@Operation(id = PDFRemoveFromDurableStoreOp.ID, category = Constants.CAT_CONVERSION, label = "PDF Remove From Durable Store", description = ""
+        + "Input is either a Blob or a document. If a document, xpath is the field to use, file:content by default."
+        + " Removes the page images (and the page count) of this PDF from the durable store"
+        + " (nuxeo.pdftoolkit.durable.enabled). Returns a JSON object: {\"documentKey\", \"enabled\", \"removed\": number"
+        + " of images removed}. Does nothing if the durable store is not enabled, or if the PDF has no digest.")
+public class PDFRemoveFromDurableStoreOp {
+
+    public static final String ID = "PDFLabs.RemoveFromDurableStore";
+
+    @Context
+    protected CoreSession session;
+
+    @Param(name = "xpath", required = false)
+    protected String xpath = "file:content";
+
+    @OperationMethod
+    public Blob run(DocumentModel doc) {
+
+        Blob b = (Blob) doc.getPropertyValue(xpath);
+
+        return run(b);
+    }
+
+    @OperationMethod
+    public Blob run(Blob blob) {
+
+        String documentKey = PDFToolkitCache.getDocumentKey(blob);
+        PDFDurableStore durableStore = PDFDurableStore.getIfEnabled();
+
+        JSONObject result = new JSONObject();
+        result.put("documentKey", documentKey);
+        result.put("enabled", durableStore != null);
+        int removed = 0;
+        if (durableStore != null && PDFDurableStore.isDigest(documentKey)) {
+            removed = durableStore.removeDocument(documentKey);
+        }
+        result.put("removed", removed);
+
+        return Blobs.createJSONBlob(result.toString());
+
+    }
+}
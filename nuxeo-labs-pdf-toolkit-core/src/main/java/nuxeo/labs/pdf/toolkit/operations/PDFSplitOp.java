@@ -0,0 +1,107 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit.operations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONArray;
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.automation.core.util.BlobList;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+
+import nuxeo.labs.pdf.toolkit.PDFPageExtractor;
+
+/**
+ * An operation that splits a PDF in several PDFs, parsing it once.
+ */
+@Operation(id = PDFSplitOp.ID, category = Constants.CAT_CONVERSION, label = "PDF Split", description = ""
+        + "Input is either a Blob or a document. If a document, xpath is the field to use, file:content by default."
+        + " Splits the PDF in several PDFs, returned as a list of blobs. Pass exactly one of:"
+        + " rangesJsonStr, a JSON array as string of print-style ranges, one PDF per range (like [\"1-3\", \"4-10,12\"]);"
+        + " everyNPages, one PDF every N pages (the last one may have less);"
+        + " byBookmarks=true, one PDF per top-level bookmark, from its page to the page before the next bookmark."
+        + " The input PDF is parsed once, whatever the number of outputs."
+        + " parallelism (optional, default 1) is the number of threads writing the outputs, each one parsing its own"
+        + " copy of the PDF. It is capped like the rendering (configuration and number of processors).")
+public class PDFSplitOp {
+
+    public static final String ID = "PDFLabs.Split";
+
+    @Context
+    protected CoreSession session;
+
+    @Param(name = "xpath", required = false)
+    protected String xpath = "file:content";
+
+    @Param(name = "rangesJsonStr", required = false)
+    protected String rangesJsonStr;
+
+    @Param(name = "everyNPages", required = false)
+    protected Integer everyNPages = 0;
+
+    @Param(name = "byBookmarks", required = false)
+    protected Boolean byBookmarks = false;
+
+    @Param(name = "parallelism", required = false)
+    protected Integer parallelism = 1;
+
+    @OperationMethod
+    public BlobList run(DocumentModel doc) {
+
+        Blob b = (Blob) doc.getPropertyValue(xpath);
+
+        return run(b);
+    }
+
+    @OperationMethod
+    public BlobList run(Blob blob) {
+
+        int modes = (StringUtils.isNotBlank(rangesJsonStr) ? 1 : 0) + (everyNPages > 0 ? 1 : 0)
+                + (byBookmarks ? 1 : 0);
+        if (modes != 1) {
+            throw new IllegalArgumentException("Pass exactly one of rangesJsonStr, everyNPages or byBookmarks");
+        }
+
+        PDFPageExtractor extractor = new PDFPageExtractor(blob);
+        extractor.setParallelism(parallelism);
+
+        if (everyNPages > 0) {
+            return extractor.splitEveryNPages(everyNPages);
+        }
+        if (byBookmarks) {
+            return extractor.splitByBookmarks();
+        }
+
+        JSONArray arr = new JSONArray(rangesJsonStr);
+        List<String> ranges = new ArrayList<>();
+        for (int i = 0; i < arr.length(); i++) {
+            ranges.add(arr.getString(i));
+        }
+        return extractor.splitByRanges(ranges);
+
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit.operations;
+
+import org.json.JSONObject;
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.runtime.api.Framework;
+
+import nuxeo.labs.pdf.toolkit.PDFBlobReference;
+import nuxeo.labs.pdf.toolkit.PDFColorMode;
+import nuxeo.labs.pdf.toolkit.PDFThumbnailsJob;
+import nuxeo.labs.pdf.toolkit.PDFToImages;
+import nuxeo.labs.pdf.toolkit.workers.PDFThumbnailsJobWork;
+
+/**
+ * The asynchronous version of {@link PDFThumbnailsOp}: the thumbnails are rendered in a worker, the operation returns
+ * immediately with a job id, to pass to {@link PDFThumbnailsJobStatusOp}.
+ */
+@Operation(id = PDFThumbnailsJobOp.ID, category = Constants.CAT_CONVERSION, label = "PDF Get Thumbnails (Async)", description = ""
+        + "Input is either a Blob or a document. If a document, xpath is the field to use, file:content by default."
+        + " Starts the rendering of the thumbnails in the background and returns immediately a JSON object:"
+        + " {\"jobId\": the id of the job, \"status\": \"scheduled\"}."
+        + " Use PDFLabs.GetThumbnailsJobStatus with this jobId to get the progress and the thumbnails."
+        + " Accepts the same parameters as PDFLabs.GetThumbnails: width, height, dpi, supersampling, parallelism,"
+        + " colorMode, pageRange, startPage and pageCount.")
+public class PDFThumbnailsJobOp {
+
+    public static final String ID = "PDFLabs.GetThumbnailsAsync";
+
+    @Context
+    protected CoreSession session;
+
+    @Param(name = "xpath", required = false)
+    protected String xpath = "file:content";
+
+    @Param(name = "width", required = false)
+    protected Integer width = PDFToImages.DEFAULT_THUMBNAIL_SIZE;
+
+    @Param(name = "height", required = false)
+    protected Integer height = PDFToImages.DEFAULT_THUMBNAIL_SIZE;
+
+    @Param(name = "dpi", required = false)
+    protected Integer dpi = PDFToImages.DEFAULT_DPI;
+
+    @Param(name = "supersampling", required = false)
+    protected Boolean supersampling = false;
+
+    @Param(name = "parallelism", required = false)
+    protected Integer parallelism = 0;
+
+    @Param(name = "colorMode", required = false)
+    protected String colorMode;
+
+    @Param(name = "pageRange", required = false)
+    protected String pageRange;
+
+    @Param(name = "startPage", required = false)
+    protected Integer startPage = 0;
+
+    @Param(name = "pageCount", required = false)
+    protected Integer pageCount = 0;
+
+    @OperationMethod
+    public Blob run(DocumentModel doc) {
+
+        Blob b = (Blob) doc.getPropertyValue(xpath);
+        if (b == null) {
+            throw new IllegalArgumentException("No PDF in " + xpath);
+        }
+
+        // The worker reads the PDF from the document, nothing to copy
+        return schedule(b, PDFBlobReference.of(doc, xpath, b));
+    }
+
+    @OperationMethod
+    public Blob run(Blob blob) {
+
+        return schedule(blob, PDFBlobReference.of(blob));
+    }
+
+    protected Blob schedule(Blob blob, PDFBlobReference source) {
+
+        if (source.getDocumentKey() == null) {
+            throw new IllegalArgumentException("The PDF must have a digest or a file name");
+        }
+        // Fail now, not in the worker
+        PDFColorMode.parse(colorMode);
+
+        // The worker may run on another node: copy the PDF in the cache if it can't read it otherwise
+        source.keepCopyIfNeeded(blob);
+        PDFThumbnailsJob job = PDFThumbnailsJob.create();
+
+        PDFThumbnailsJobWork work = new PDFThumbnailsJobWork(job.getJobId(), source);
+        work.setSize(width, height, dpi);
+        work.setSupersampling(supersampling);
+        work.setParallelism(parallelism);
+        work.setColorMode(colorMode);
+        work.setPages(pageRange, startPage, pageCount);
+        Framework.getService(WorkManager.class).schedule(work);
+
+        JSONObject result = new JSONObject();
+        result.put("jobId", job.getJobId());
+        result.put("status", PDFThumbnailsJob.STATUS_SCHEDULED);
+
+        return Blobs.createJSONBlob(result.toString());
+
+    }
+}
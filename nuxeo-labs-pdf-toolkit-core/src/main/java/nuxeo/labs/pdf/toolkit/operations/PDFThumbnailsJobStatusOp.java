@@ -0,0 +1,67 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit.operations;
+
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+
+import nuxeo.labs.pdf.toolkit.PDFThumbnailsJob;
+
+/**
+ * Returns the progress, and the thumbnails rendered so far, of a job started by {@link PDFThumbnailsJobOp}
+ */
+@Operation(id = PDFThumbnailsJobStatusOp.ID, category = Constants.CAT_CONVERSION, label = "PDF Get Thumbnails Job Status", description = ""
+        + "jobId is the id returned by PDFLabs.GetThumbnailsAsync. Returns a JSON object:"
+        + " {\"jobId\", \"status\": scheduled, running, completed or failed, \"totalPages\": number of pages of the PDF,"
+        + " \"pages\": [page numbers to render], \"pagesDone\": number of pages rendered,"
+        + " \"thumbnails\": [base64 of the thumbnails rendered so far, in page order], \"timedOutPages\": [...],"
+        + " \"error\": message, if failed}."
+        + " withThumbnails (optional, default true): if false, \"thumbnails\" is not returned (progress only)."
+        + " thumbnailsFrom (optional, default 0): number of thumbnails the caller already has, only the next ones are"
+        + " returned (\"thumbnailsFrom\" is echoed), so each poll returns the new thumbnails only."
+        + " Fails if the job is unknown or expired.")
+public class PDFThumbnailsJobStatusOp {
+
+    public static final String ID = "PDFLabs.GetThumbnailsJobStatus";
+
+    @Param(name = "jobId", required = true)
+    protected String jobId;
+
+    @Param(name = "withThumbnails", required = false)
+    protected Boolean withThumbnails = true;
+
+    @Param(name = "thumbnailsFrom", required = false)
+    protected Integer thumbnailsFrom = 0;
+
+    @OperationMethod
+    public Blob run() {
+
+        PDFThumbnailsJob job = PDFThumbnailsJob.get(jobId);
+        if (job == null) {
+            throw new IllegalArgumentException("Unknown or expired job: " + jobId);
+        }
+
+        return Blobs.createJSONBlob(job.toJSON(withThumbnails, thumbnailsFrom).toString());
+
+    }
+}
@@ -18,7 +18,11 @@
  */
 package nuxeo.labs.pdf.toolkit.operations;
 
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
+import org.json.JSONObject;
 import org.nuxeo.ecm.automation.core.Constants;
 import org.nuxeo.ecm.automation.core.annotations.Context;
 import org.nuxeo.ecm.automation.core.annotations.Operation;
@@ -30,6 +34,8 @@ import org.nuxeo.ecm.core.api.Blobs;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 
+import nuxeo.labs.pdf.toolkit.PDFPyramidLevel;
+import nuxeo.labs.pdf.toolkit.PDFSpriteSheet;
 import nuxeo.labs.pdf.toolkit.PDFToImages;
 
 /**
@@ -42,7 +48,25 @@ import nuxeo.labs.pdf.toolkit.PDFToImages;
         + "Input is either a Blob or a document. If a document, xpath is the field to use, file:content by default."
         + " Calculate thumbnails of each page of the input PDF."
         + " Returns a JSON Array (as string) of the ordered thumbnails, jpeg, as base64."
-        + " The operation accepts maxWidth (default 512), maxHeight (default 512) and dpi (default 150) as optional parameters."
+        + " The operation accepts maxWidth (default 512), maxHeight (default 512) and dpi (max. resolution, default 512) as optional parameters."
+        + " Pages are rendered directly at the size fitting width/height, dpi being the maximum resolution."
+        + " supersampling (optional, default false) renders at twice this size and scales down, for a better quality."
+        + " parallelism (optional) is the number of threads used to render the pages (default from configuration, 1),"
+        + " capped by the configuration and the number of processors."
+        + " To get only some pages, pass either pageRange (print-style range, like '1-20' or '2-5,8') or startPage"
+        + " (1-based) and pageCount. In this case, the operation returns a JSON object instead of an array:"
+        + " {\"totalPages\": number of pages of the PDF, \"pages\": [page numbers], \"thumbnails\": [base64, ...]}."
+        + " pyramid (optional, default false): also render, in the same pass, the sizes configured by"
+        + " nuxeo.pdftoolkit.pyramid.levels (by default 128, 512 and the previews), so they are then found in the cache."
+        + " spritePages (optional): pack the thumbnails in JPEG sprite sheets of spritePages thumbnails each"
+        + " (spriteColumns per row, default 10). The operation then returns a JSON object: {\"totalPages\", \"pages\","
+        + " \"sprites\": [{\"image\": base64, \"width\", \"height\", \"pages\": [{\"page\", \"x\", \"y\", \"width\","
+        + " \"height\"}, ...]}, ...]}."
+        + " colorMode (optional): rgb (default), gray, binary (1-bit PNG instead of JPEG) or auto (chosen for each page)."
+        + " A page that exceeds its rendering time budget gets a gray placeholder and is rendered later in the background;"
+        + " JSON object results list these pages in \"timedOutPages\"."
+        + " withStatus (optional, default false): always return the JSON object, even for all the pages, so"
+        + " \"timedOutPages\" is always reported."
         + " Warning: as all is in memory as base64, don't use big images and/or high dpi.")
 public class PDFThumbnailsOp {
 
@@ -63,25 +87,95 @@ public class PDFThumbnailsOp {
     @Param(name = "dpi", required = false)
     protected Integer dpi = PDFToImages.DEFAULT_DPI;
 
+    @Param(name = "supersampling", required = false)
+    protected Boolean supersampling = false;
+
+    @Param(name = "parallelism", required = false)
+    protected Integer parallelism = 0;
+
+    @Param(name = "pyramid", required = false)
+    protected Boolean pyramid = false;
+
+    @Param(name = "colorMode", required = false)
+    protected String colorMode;
+
+    @Param(name = "pageRange", required = false)
+    protected String pageRange;
+
+    @Param(name = "startPage", required = false)
+    protected Integer startPage = 0;
+
+    @Param(name = "pageCount", required = false)
+    protected Integer pageCount = 0;
+
+    @Param(name = "spritePages", required = false)
+    protected Integer spritePages = 0;
+
+    @Param(name = "spriteColumns", required = false)
+    protected Integer spriteColumns = 0;
+
+    @Param(name = "withStatus", required = false)
+    protected Boolean withStatus = false;
+
     @OperationMethod
     public Blob run(DocumentModel doc) {
 
-        Blob b = (Blob) doc.getPropertyValue(xpath);
-
-        return run(b);
+        // Not just the blob: pages rendered later in the background are then read from the document
+        return getThumbnails(new PDFToImages(doc, xpath));
     }
 
     @OperationMethod
     public Blob run(Blob blob) {
 
-        PDFToImages pdfThumbnails = new PDFToImages(blob);
+        return getThumbnails(new PDFToImages(blob));
+    }
+
+    protected Blob getThumbnails(PDFToImages pdfThumbnails) {
+
         pdfThumbnails.setDpi(dpi);
+        pdfThumbnails.setSupersampling(supersampling);
+        pdfThumbnails.setParallelism(parallelism);
+        pdfThumbnails.setColorMode(colorMode);
+        if (pyramid) {
+            pdfThumbnails.setPyramidLevels(PDFPyramidLevel.getConfiguredLevels());
+        }
+
+        pdfThumbnails.setPageRange(pageRange);
+        pdfThumbnails.setPages(startPage, pageCount);
+
+        if (spritePages > 0) {
+            pdfThumbnails.setSize(width, height);
+            List<PDFSpriteSheet> sheets = pdfThumbnails.createSpriteSheets(spritePages, spriteColumns);
+
+            JSONArray sprites = new JSONArray();
+            for (PDFSpriteSheet sheet : sheets) {
+                sprites.put(sheet.toJSON());
+            }
+
+            JSONObject result = new JSONObject();
+            result.put("totalPages", pdfThumbnails.getTotalPageCount());
+            result.put("pages", new JSONArray(pdfThumbnails.getSelectedPages()));
+            result.put("sprites", sprites);
+            result.put("timedOutPages", new JSONArray(pdfThumbnails.getTimedOutPages()));
+
+            return Blobs.createJSONBlob(result.toString());
+        }
 
         BlobList thumbnails = pdfThumbnails.createThumbnails(width, height);
         JSONArray array = PDFToImages.toBase64JSONArray(thumbnails);
 
-        String json = array.toString();
-        return Blobs.createJSONBlob(json);
+        // Plain array kept for compatibility, but then the caller can't know which pages are placeholders
+        if (!withStatus && StringUtils.isBlank(pageRange) && startPage <= 0 && pageCount <= 0) {
+            return Blobs.createJSONBlob(array.toString());
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("totalPages", pdfThumbnails.getTotalPageCount());
+        result.put("pages", new JSONArray(pdfThumbnails.getSelectedPages()));
+        result.put("thumbnails", array);
+        result.put("timedOutPages", new JSONArray(pdfThumbnails.getTimedOutPages()));
+
+        return Blobs.createJSONBlob(result.toString());
 
     }
 }
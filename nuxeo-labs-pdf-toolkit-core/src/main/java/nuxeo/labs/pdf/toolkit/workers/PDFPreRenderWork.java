@@ -0,0 +1,119 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit.workers;
+
+import org.apache.commons.lang3.StringUtils;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.work.AbstractWork;
+import org.nuxeo.runtime.api.Framework;
+
+import nuxeo.labs.pdf.toolkit.PDFToImages;
+import nuxeo.labs.pdf.toolkit.PDFToolkitCache;
+
+/**
+ * Render the thumbnails (default size, see {@link PDFToImages#DEFAULT_THUMBNAIL_SIZE}) and, optionally, the previews
+ * of the first pages ({@code nuxeo.pdftoolkit.prerender.previews}, default 0) of the PDF of a document, so they are
+ * already in the cache when a user opens it.
+ * <br>
+ * The work id is derived from the PDF (its digest), so the same PDF is scheduled only once at a time, whatever the
+ * number of documents holding it.
+ */
+public class PDFPreRenderWork extends AbstractWork {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String CATEGORY = "pdfToolkitPreRender";
+
+    public static final String PREVIEWS_PROPERTY = "nuxeo.pdftoolkit.prerender.previews";
+
+    protected final String xpath;
+
+    protected final String documentKey;
+
+    public PDFPreRenderWork(String repositoryName, String docId, String xpath, String documentKey) {
+
+        super(getWorkId(documentKey));
+        setDocument(repositoryName, docId);
+        this.xpath = xpath;
+        this.documentKey = documentKey;
+    }
+
+    public static String getWorkId(String documentKey) {
+        return "pdftoolkit-prerender-" + documentKey;
+    }
+
+    @Override
+    public String getTitle() {
+        return "PDF Toolkit: pre-render " + docId;
+    }
+
+    @Override
+    public String getCategory() {
+        return CATEGORY;
+    }
+
+    @Override
+    public void work() {
+
+        openSystemSession();
+        IdRef ref = new IdRef(docId);
+        if (!session.exists(ref)) {
+            return;
+        }
+        DocumentModel doc = session.getDocument(ref);
+        Blob blob = (Blob) doc.getPropertyValue(xpath);
+        // Changed (or removed) since scheduled: the new PDF has its own work
+        if (blob == null || !documentKey.equals(PDFToolkitCache.getDocumentKey(blob))) {
+            return;
+        }
+
+        // Rendering a big PDF can be long, don't hold the transaction
+        commitOrRollbackTransaction();
+        try {
+            setStatus("Rendering thumbnails");
+            PDFToImages pdfToImages = new PDFToImages(blob);
+            pdfToImages.createThumbnails();
+
+            int previews = Math.min(getPreviewCount(), pdfToImages.getTotalPageCount());
+            for (int page = 1; page <= previews; page++) {
+                setStatus("Rendering preview " + page + "/" + previews);
+                pdfToImages.getJpegPreviewImage(page);
+            }
+            setStatus("Done");
+        } finally {
+            startTransaction();
+        }
+    }
+
+    protected static int getPreviewCount() {
+
+        String value = Framework.getProperty(PREVIEWS_PROPERTY);
+        if (StringUtils.isNotBlank(value)) {
+            try {
+                return Math.max(Integer.parseInt(value.trim()), 0);
+            } catch (NumberFormatException e) {
+                // Ignore, use default
+            }
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit.workers;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.work.AbstractWork;
+
+import nuxeo.labs.pdf.toolkit.PDFBlobReference;
+import nuxeo.labs.pdf.toolkit.PDFColorMode;
+import nuxeo.labs.pdf.toolkit.PDFPyramidLevel;
+import nuxeo.labs.pdf.toolkit.PDFToImages;
+
+/**
+ * Render, in the background and at a lower fidelity, an image that exceeded its time budget (see
+ * {@link PDFToImages#setTimeouts(long, long)}), and replace its placeholder in the cache.
+ * <br>
+ * The work id is derived from the cache key of the image, so an image is scheduled only once at a time. The PDF is
+ * read from its document, its blob provider, or its copy in the cache (see {@link PDFBlobReference}): if it changed or
+ * expired, there is nothing to do.
+ */
+public class PDFRenderRetryWork extends AbstractWork {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String CATEGORY = "pdfToolkitRenderRetry";
+
+    protected final PDFBlobReference source;
+
+    protected final String cacheKey;
+
+    protected final int pageNum;
+
+    protected final int width;
+
+    protected final int height;
+
+    protected final int dpi;
+
+    protected final boolean fitToSize;
+
+    protected final boolean supersampling;
+
+    protected final String colorMode;
+
+    public PDFRenderRetryWork(PDFBlobReference source, String cacheKey, int pageNum, PDFPyramidLevel level,
+            boolean fitToSize, boolean supersampling, PDFColorMode colorMode) {
+
+        super("pdftoolkit-retry-" + cacheKey);
+        this.source = source;
+        this.cacheKey = cacheKey;
+        this.pageNum = pageNum;
+        width = level.getWidth();
+        height = level.getHeight();
+        dpi = level.getDpi();
+        this.fitToSize = fitToSize;
+        this.supersampling = supersampling;
+        this.colorMode = colorMode.name();
+    }
+
+    @Override
+    public String getTitle() {
+        return "PDF Toolkit: render page " + pageNum + " (" + cacheKey + ")";
+    }
+
+    @Override
+    public String getCategory() {
+        return CATEGORY;
+    }
+
+    @Override
+    public void work() {
+
+        Blob pdfBlob = source.getBlob();
+        if (pdfBlob == null) {
+            return;
+        }
+
+        // Rendering can be long, don't hold the transaction
+        commitOrRollbackTransaction();
+        try {
+            setStatus("Rendering");
+            PDFToImages pdfToImages = new PDFToImages(pdfBlob);
+            // Same variant as the image it replaces
+            pdfToImages.setFitToSize(fitToSize);
+            pdfToImages.setSupersampling(supersampling);
+            pdfToImages.setColorMode(colorMode);
+            pdfToImages.setLowFidelity(true);
+            long timeout = PDFToImages.getConfiguredTimeout(PDFToImages.RETRY_TIMEOUT_PROPERTY,
+                    PDFToImages.DEFAULT_RETRY_TIMEOUT);
+            pdfToImages.setTimeouts(timeout, timeout);
+
+            if (!pdfToImages.renderTimedOutImage(cacheKey, pageNum, new PDFPyramidLevel(width, height, dpi))) {
+                // Still too long: keep the placeholder until the timeout flag expires
+                setStatus("Timed out");
+                return;
+            }
+            setStatus("Done");
+        } finally {
+            startTransaction();
+        }
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit.workers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.nuxeo.ecm.automation.core.util.BlobList;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.work.AbstractWork;
+
+import nuxeo.labs.pdf.toolkit.PDFBlobReference;
+import nuxeo.labs.pdf.toolkit.PDFDocumentCache;
+import nuxeo.labs.pdf.toolkit.PDFThumbnailsJob;
+import nuxeo.labs.pdf.toolkit.PDFToImages;
+import nuxeo.labs.pdf.toolkit.PDFToolkitExecutor;
+import nuxeo.labs.pdf.toolkit.PDFTools;
+
+/**
+ * Render the thumbnails of an asynchronous job (see {@link PDFThumbnailsJob}), chunk by chunk, so the progress and
+ * the thumbnails already rendered can be read while it runs.
+ * <br>
+ * The PDF is read from its document, its blob provider, or its copy in the cache (see {@link PDFBlobReference}), so
+ * the work can run on any node. Each chunk goes through the usual rendering (and cache) of {@link PDFToImages}.
+ */
+public class PDFThumbnailsJobWork extends AbstractWork {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String CATEGORY = "pdfToolkitJob";
+
+    // Pages per chunk, at least 2 per rendering thread
+    protected static final int MIN_CHUNK_SIZE = 10;
+
+    protected final String jobId;
+
+    protected final PDFBlobReference source;
+
+    protected int width;
+
+    protected int height;
+
+    protected int dpi;
+
+    protected boolean supersampling;
+
+    protected int parallelism;
+
+    protected String colorMode;
+
+    protected String pageRange;
+
+    protected int startPage;
+
+    protected int pageCount;
+
+    public PDFThumbnailsJobWork(String jobId, PDFBlobReference source) {
+
+        super("pdftoolkit-job-" + jobId);
+        this.jobId = jobId;
+        this.source = source;
+    }
+
+    public void setSize(int width, int height, int dpi) {
+        this.width = width;
+        this.height = height;
+        this.dpi = dpi;
+    }
+
+    public void setSupersampling(boolean supersampling) {
+        this.supersampling = supersampling;
+    }
+
+    /**
+     * @param parallelism bound by the configuration and the number of processors, see
+     *            {@link PDFToolkitExecutor#clampParallelism(int)}
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = PDFToolkitExecutor.clampParallelism(parallelism);
+    }
+
+    public void setColorMode(String colorMode) {
+        this.colorMode = colorMode;
+    }
+
+    public void setPages(String pageRange, int startPage, int pageCount) {
+        this.pageRange = pageRange;
+        this.startPage = startPage;
+        this.pageCount = pageCount;
+    }
+
+    @Override
+    public String getTitle() {
+        return "PDF Toolkit: thumbnails job " + jobId;
+    }
+
+    @Override
+    public String getCategory() {
+        return CATEGORY;
+    }
+
+    @Override
+    public void work() {
+
+        PDFThumbnailsJob job = PDFThumbnailsJob.get(jobId);
+        if (job == null) {
+            // Expired
+            return;
+        }
+
+        // Read in the transaction, when it comes from a document
+        Blob pdfBlob = source.getBlob();
+        if (pdfBlob == null) {
+            job.fail("The PDF is no longer available");
+            return;
+        }
+
+        // Rendering a big PDF can be long, don't hold the transaction
+        commitOrRollbackTransaction();
+        try {
+
+            PDFToImages pdfToImages = new PDFToImages(pdfBlob);
+            pdfToImages.setSize(width, height);
+            pdfToImages.setDpi(dpi);
+            pdfToImages.setSupersampling(supersampling);
+            pdfToImages.setParallelism(parallelism);
+            pdfToImages.setColorMode(colorMode);
+            pdfToImages.setPageRange(pageRange);
+            pdfToImages.setPages(startPage, pageCount);
+
+            int totalPages;
+            try (PDFDocumentCache.Lease lease = PDFDocumentCache.getInstance().acquire(pdfBlob)) {
+                totalPages = lease.getDocument().getNumberOfPages();
+            }
+            List<Integer> pages = new ArrayList<>(pdfToImages.getSelectedPages(totalPages));
+            job.start(pages, totalPages);
+            setProgress(new Progress(0, pages.size()));
+
+            int chunkSize = Math.max(MIN_CHUNK_SIZE, 2 * parallelism);
+            for (int start = 0; start < pages.size(); start += chunkSize) {
+                List<Integer> chunk = pages.subList(start, Math.min(start + chunkSize, pages.size()));
+                pdfToImages.setPageRange(PDFTools.toPageRange(chunk));
+                BlobList thumbnails = pdfToImages.createThumbnails();
+                job.addChunk(thumbnails, pdfToImages.getTimedOutPages());
+                setProgress(new Progress(start + chunk.size(), pages.size()));
+            }
+
+            job.complete();
+
+        } catch (IOException e) {
+            job.fail(e.getMessage());
+            throw new NuxeoException("Failed to read the PDF", e);
+        } catch (RuntimeException e) {
+            job.fail(e.getMessage());
+            throw e;
+        } finally {
+            startTransaction();
+        }
+    }
+
+}
@@ -19,28 +19,38 @@
 package nuxeo.labs.pdf.toolkit.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.Serializable;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.nuxeo.common.utils.FileUtils;
 import org.nuxeo.ecm.automation.AutomationService;
 import org.nuxeo.ecm.automation.OperationContext;
+import org.nuxeo.ecm.automation.core.util.BlobList;
 import org.nuxeo.ecm.automation.test.AutomationFeature;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.Blobs;
 import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
 import org.nuxeo.ecm.core.test.DefaultRepositoryInit;
 import org.nuxeo.ecm.core.test.annotations.Granularity;
@@ -51,13 +61,27 @@ import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.TransactionalFeature;
+import org.nuxeo.runtime.test.runner.WithFrameworkProperty;
 
 import jakarta.inject.Inject;
+import nuxeo.labs.pdf.toolkit.PDFBlobReference;
+import nuxeo.labs.pdf.toolkit.PDFDurableStore;
+import nuxeo.labs.pdf.toolkit.PDFPagePlan;
+import nuxeo.labs.pdf.toolkit.PDFPyramidLevel;
 import nuxeo.labs.pdf.toolkit.PDFToImages;
+import nuxeo.labs.pdf.toolkit.PDFToolkitCache;
+import nuxeo.labs.pdf.toolkit.listeners.PDFPreRenderListener;
 import nuxeo.labs.pdf.toolkit.operations.PDFJpegimagePreviewOp;
 import nuxeo.labs.pdf.toolkit.operations.PDFPageExtractorOp;
 import nuxeo.labs.pdf.toolkit.operations.PDFPageOrderingOp;
+import nuxeo.labs.pdf.toolkit.operations.PDFPagePlanOp;
 import nuxeo.labs.pdf.toolkit.operations.PDFPageRemoverOp;
+import nuxeo.labs.pdf.toolkit.operations.PDFPageTileOp;
+import nuxeo.labs.pdf.toolkit.operations.PDFRemoveFromDurableStoreOp;
+import nuxeo.labs.pdf.toolkit.operations.PDFSplitOp;
+import nuxeo.labs.pdf.toolkit.operations.PDFThumbnailsJobOp;
+import nuxeo.labs.pdf.toolkit.operations.PDFThumbnailsJobStatusOp;
 import nuxeo.labs.pdf.toolkit.operations.PDFThumbnailsOp;
 
 /**
@@ -84,6 +108,9 @@ public class TestOperationsWithDownload {
     @Inject
     protected AutomationService automationService;
 
+    @Inject
+    protected TransactionalFeature transactionalFeature;
+
     @Test
     public void shouldGetThumbnails() throws Exception {
 
@@ -112,6 +139,129 @@ public class TestOperationsWithDownload {
         assertTrue(info.getHeight() <= PDFToImages.DEFAULT_THUMBNAIL_SIZE);
         assertTrue(info.getWidth() <= PDFToImages.DEFAULT_THUMBNAIL_SIZE);
 
+        // withStatus: all the pages, with the timed out ones
+        ctx = new OperationContext(session);
+        ctx.setInput(b);
+        Map<String, Object> params = new HashMap<>();
+        params.put("withStatus", true);
+        result = (Blob) automationService.run(ctx, PDFThumbnailsOp.ID, params);
+        JSONObject status = new JSONObject(result.getString());
+        assertEquals(pageCount, status.getInt("totalPages"));
+        assertEquals(pageCount, status.getJSONArray("thumbnails").length());
+        assertEquals(0, status.getJSONArray("timedOutPages").length());
+
+    }
+
+    @Test
+    public void shouldGetSomeThumbnails() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(TEST_PDF_PAH);
+        Blob b = new FileBlob(f);
+
+        OperationContext ctx = new OperationContext(session);
+        ctx.setInput(b);
+        Map<String, Object> params = new HashMap<>();
+        params.put("startPage", 3);
+        params.put("pageCount", 4);
+
+        Blob result = (Blob) automationService.run(ctx, PDFThumbnailsOp.ID, params);
+        assertNotNull(result);
+
+        JSONObject obj = new JSONObject(result.getString());
+        assertEquals(TEST_PDF_PAGE_COUNT, obj.getInt("totalPages"));
+        assertEquals(4, obj.getJSONArray("thumbnails").length());
+        JSONArray pages = obj.getJSONArray("pages");
+        assertEquals(3, pages.getInt(0));
+        assertEquals(6, pages.getInt(3));
+
+        // Same with a range
+        ctx = new OperationContext(session);
+        ctx.setInput(b);
+        params = new HashMap<>();
+        params.put("pageRange", "2-3, 9");
+
+        result = (Blob) automationService.run(ctx, PDFThumbnailsOp.ID, params);
+        obj = new JSONObject(result.getString());
+        assertEquals(TEST_PDF_PAGE_COUNT, obj.getInt("totalPages"));
+        assertEquals(3, obj.getJSONArray("thumbnails").length());
+        assertEquals(9, obj.getJSONArray("pages").getInt(2));
+
+    }
+
+    @Test
+    public void shouldGetThumbnailSprites() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(TEST_PDF_PAH);
+        Blob b = new FileBlob(f);
+
+        OperationContext ctx = new OperationContext(session);
+        ctx.setInput(b);
+        Map<String, Object> params = new HashMap<>();
+        params.put("width", 128);
+        params.put("height", 128);
+        params.put("spritePages", 4);
+        params.put("spriteColumns", 2);
+
+        Blob result = (Blob) automationService.run(ctx, PDFThumbnailsOp.ID, params);
+        assertNotNull(result);
+
+        JSONObject obj = new JSONObject(result.getString());
+        assertEquals(TEST_PDF_PAGE_COUNT, obj.getInt("totalPages"));
+        // 10 pages, 4 per sheet => 3 sheets
+        JSONArray sprites = obj.getJSONArray("sprites");
+        assertEquals(3, sprites.length());
+        assertEquals(2, sprites.getJSONObject(2).getJSONArray("pages").length());
+
+        JSONObject first = sprites.getJSONObject(0);
+        // 2 columns x 2 rows of 128 pixels cells
+        assertEquals(256, first.getInt("width"));
+        assertEquals(256, first.getInt("height"));
+        JSONObject page4 = first.getJSONArray("pages").getJSONObject(3);
+        assertEquals(4, page4.getInt("page"));
+        assertEquals(128, page4.getInt("x"));
+        assertEquals(128, page4.getInt("y"));
+        assertTrue(page4.getInt("width") <= 128 && page4.getInt("height") <= 128);
+        assertTrue(first.getString("image").length() > 0);
+
+    }
+
+    @Test
+    public void shouldGetPageTiles() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(TEST_PDF_PAH);
+        Blob b = new FileBlob(f);
+
+        // No level => description of the levels
+        OperationContext ctx = new OperationContext(session);
+        ctx.setInput(b);
+        Map<String, Object> params = new HashMap<>();
+        params.put("pageNumber", 2);
+
+        Blob result = (Blob) automationService.run(ctx, PDFPageTileOp.ID, params);
+        JSONObject info = new JSONObject(result.getString());
+        assertEquals(256, info.getInt("tileSize"));
+        JSONArray levels = info.getJSONArray("levels");
+        assertTrue(levels.length() > 2);
+        JSONObject level0 = levels.getJSONObject(0);
+        assertEquals(1, level0.getInt("columns"));
+        assertEquals(1, level0.getInt("rows"));
+        JSONObject level1 = levels.getJSONObject(1);
+        assertEquals(2, level1.getInt("columns"));
+
+        // Bottom-right tile of level 1
+        ctx = new OperationContext(session);
+        ctx.setInput(b);
+        params.put("level", 1);
+        params.put("x", 1);
+        params.put("y", level1.getInt("rows") - 1);
+        result = (Blob) automationService.run(ctx, PDFPageTileOp.ID, params);
+        assertEquals("image/jpeg", result.getMimeType());
+
+        ImageInfo tileInfo = Framework.getService(ImagingService.class).getImageInfo(result);
+        assertEquals("jpeg", tileInfo.getFormat().toLowerCase());
+        assertEquals(level1.getInt("width") - 256, tileInfo.getWidth());
+        assertEquals(level1.getInt("height") - (level1.getInt("rows") - 1) * 256, tileInfo.getHeight());
+
     }
 
     @Test
@@ -232,6 +382,73 @@ public class TestOperationsWithDownload {
 
     }
 
+    @Test
+    public void shouldApplyPagePlan() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(TEST_PDF_PAH);
+        Blob b = new FileBlob(f);
+
+        OperationContext ctx = new OperationContext(session);
+        ctx.setInput(b);
+        Map<String, Object> params = new HashMap<>();
+        // Page 3 first, page 1 rotated, page 2 deleted, pages 4-10 removed
+        params.put("planJsonStr", "[3, {\"page\": 1, \"rotation\": 90}, {\"page\": 2, \"delete\": true}]");
+
+        Blob result = (Blob) automationService.run(ctx, PDFPagePlanOp.ID, params);
+        assertNotNull(result);
+
+        try (PDDocument resultPdf = Loader.loadPDF(result.getFile())) {
+            assertEquals(2, resultPdf.getNumberOfPages());
+            assertEquals(90, resultPdf.getPage(1).getRotation());
+
+            PDFTextStripper stripper = new PDFTextStripper();
+            stripper.setSortByPosition(true);
+            stripper.setStartPage(1);
+            stripper.setEndPage(1);
+            assertTrue(stripper.getText(resultPdf).contains(TEXT_PAGE_3));
+        }
+
+        // A page listed twice
+        try {
+            new PDFPagePlan(b).applyPlan("[1, 2, 1]");
+            fail("A page listed twice should be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    // parallelism is capped by this setting
+    @WithFrameworkProperty(name = PDFToImages.PARALLELISM_PROPERTY, value = "2")
+    public void shouldSplitPdf() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(TEST_PDF_PAH);
+        Blob b = new FileBlob(f);
+
+        OperationContext ctx = new OperationContext(session);
+        ctx.setInput(b);
+        Map<String, Object> params = new HashMap<>();
+        params.put("rangesJsonStr", "[\"1-3\", \"4-9\", \"10\"]");
+        params.put("parallelism", 2);
+
+        BlobList result = (BlobList) automationService.run(ctx, PDFSplitOp.ID, params);
+        assertEquals(3, result.size());
+        int[] expectedPageCounts = { 3, 6, 1 };
+        for (int i = 0; i < result.size(); i++) {
+            try (PDDocument part = Loader.loadPDF(result.get(i).getFile())) {
+                assertEquals(expectedPageCounts[i], part.getNumberOfPages());
+            }
+        }
+
+        params = new HashMap<>();
+        params.put("everyNPages", 4);
+        result = (BlobList) automationService.run(ctx, PDFSplitOp.ID, params);
+        assertEquals(3, result.size());
+        try (PDDocument last = Loader.loadPDF(result.get(2).getFile())) {
+            assertEquals(2, last.getNumberOfPages());
+        }
+    }
+
     @Test
     public void shouldGetJpegImagePreview() throws Exception {
 
@@ -259,4 +476,180 @@ public class TestOperationsWithDownload {
         assertTrue(info.getWidth() <= PDFToImages.PREVIEW_PAGE_MAX_SIZE);
 
     }
+
+    @Test
+    @WithFrameworkProperty(name = PDFPreRenderListener.ENABLED_PROPERTY, value = "true")
+    public void shouldPreRenderThumbnailsOnCreation() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(TEST_PDF_PAH);
+        Blob b = new FileBlob(f, "application/pdf");
+        b.setFilename("prerender.pdf");
+
+        DocumentModel doc = session.createDocumentModel("/", "prerender", "File");
+        doc.setPropertyValue("file:content", (Serializable) b);
+        doc = session.createDocument(doc);
+
+        // Commit and wait for the works
+        transactionalFeature.nextTransaction();
+
+        doc = session.getDocument(doc.getRef());
+        String documentKey = PDFToolkitCache.getDocumentKey((Blob) doc.getPropertyValue("file:content"));
+        assertEquals(TEST_PDF_PAGE_COUNT, new PDFToolkitCache().getPageCount(documentKey));
+    }
+
+    @Test
+    public void shouldGetThumbnailsAsynchronously() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(TEST_PDF_PAH);
+        Blob b = new FileBlob(f);
+
+        OperationContext ctx = new OperationContext(session);
+        ctx.setInput(b);
+        Map<String, Object> params = new HashMap<>();
+        params.put("width", 128);
+        params.put("height", 128);
+        Blob result = (Blob) automationService.run(ctx, PDFThumbnailsJobOp.ID, params);
+        JSONObject submitted = new JSONObject(result.getString());
+        String jobId = submitted.getString("jobId");
+        assertTrue(StringUtils.isNotBlank(jobId));
+
+        // Commit and wait for the works
+        transactionalFeature.nextTransaction();
+
+        ctx = new OperationContext(session);
+        params = new HashMap<>();
+        params.put("jobId", jobId);
+        result = (Blob) automationService.run(ctx, PDFThumbnailsJobStatusOp.ID, params);
+        JSONObject status = new JSONObject(result.getString());
+        assertEquals("completed", status.getString("status"));
+        assertEquals(TEST_PDF_PAGE_COUNT, status.getInt("totalPages"));
+        assertEquals(TEST_PDF_PAGE_COUNT, status.getInt("pagesDone"));
+        assertEquals(TEST_PDF_PAGE_COUNT, status.getJSONArray("thumbnails").length());
+        String lastThumbnail = status.getJSONArray("thumbnails").getString(TEST_PDF_PAGE_COUNT - 1);
+
+        // Only the thumbnails the caller doesn't have yet
+        ctx = new OperationContext(session);
+        params = new HashMap<>();
+        params.put("jobId", jobId);
+        params.put("thumbnailsFrom", TEST_PDF_PAGE_COUNT - 3);
+        result = (Blob) automationService.run(ctx, PDFThumbnailsJobStatusOp.ID, params);
+        status = new JSONObject(result.getString());
+        assertEquals(TEST_PDF_PAGE_COUNT - 3, status.getInt("thumbnailsFrom"));
+        assertEquals(3, status.getJSONArray("thumbnails").length());
+        assertEquals(lastThumbnail, status.getJSONArray("thumbnails").getString(2));
+
+        // From a document: the worker reads the PDF from it
+        DocumentModel doc = session.createDocumentModel("/", "testFile", "File");
+        doc.setPropertyValue("file:content", new FileBlob(f));
+        doc = session.createDocument(doc);
+        transactionalFeature.nextTransaction();
+
+        ctx = new OperationContext(session);
+        ctx.setInput(doc);
+        params = new HashMap<>();
+        params.put("pageRange", "1-2");
+        params.put("parallelism", 1000);
+        result = (Blob) automationService.run(ctx, PDFThumbnailsJobOp.ID, params);
+        jobId = new JSONObject(result.getString()).getString("jobId");
+        transactionalFeature.nextTransaction();
+
+        ctx = new OperationContext(session);
+        params = new HashMap<>();
+        params.put("jobId", jobId);
+        result = (Blob) automationService.run(ctx, PDFThumbnailsJobStatusOp.ID, params);
+        status = new JSONObject(result.getString());
+        assertEquals("completed", status.getString("status"));
+        assertEquals(2, status.getJSONArray("thumbnails").length());
+    }
+
+    @Test
+    @WithFrameworkProperty(name = PDFDurableStore.ENABLED_PROPERTY, value = "true")
+    @Deploy("nuxeo.labs.pdf.toolkit.nuxeo-labs-pdf-toolkit-core:OSGI-INF/test-durable-store-contrib.xml")
+    public void shouldKeepPagesInTheDurableStore() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(TEST_PDF_PAH);
+        Blob b = new FileBlob(f);
+        try (InputStream in = new FileInputStream(f)) {
+            b.setDigest(DigestUtils.md5Hex(in));
+        }
+
+        PDFToImages pdfToImages = new PDFToImages(b);
+        pdfToImages.setPages(1, 2);
+        BlobList thumbnails = pdfToImages.createThumbnails();
+
+        PDFDurableStore durableStore = PDFDurableStore.getIfEnabled();
+        assertNotNull(durableStore);
+        assertEquals(TEST_PDF_PAGE_COUNT, durableStore.getPageCount(b.getDigest()));
+        Blob durable = durableStore.getBlob(PDFToolkitCache.getPageKey(b.getDigest(), 1, "512x512-512"));
+        assertNotNull(durable);
+        assertEquals(thumbnails.get(0).getLength(), durable.getLength());
+
+        // Tiles are not kept
+        assertFalse(PDFDurableStore.accepts(PDFToolkitCache.getPageKey(b.getDigest(), 1, "tile256-600-z0-0-0")));
+
+        // Removal by PDF
+        OperationContext ctx = new OperationContext(session);
+        ctx.setInput(b);
+        Blob result = (Blob) automationService.run(ctx, PDFRemoveFromDurableStoreOp.ID);
+        JSONObject removed = new JSONObject(result.getString());
+        assertTrue(removed.getInt("removed") >= 2);
+        assertNull(durableStore.getBlob(PDFToolkitCache.getPageKey(b.getDigest(), 1, "512x512-512")));
+        assertEquals(-1, durableStore.getPageCount(b.getDigest()));
+    }
+
+    @Test
+    public void shouldReadThePdfBackInTheBackground() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(TEST_PDF_PAH);
+
+        // A document: read from it, no copy
+        DocumentModel doc = session.createDocumentModel("/", "testFile", "File");
+        doc.setPropertyValue("file:content", new FileBlob(f));
+        doc = session.createDocument(doc);
+        transactionalFeature.nextTransaction();
+
+        doc = session.getDocument(doc.getRef());
+        Blob docBlob = (Blob) doc.getPropertyValue("file:content");
+        PDFBlobReference ref = PDFBlobReference.of(doc, "file:content", docBlob);
+        assertFalse(ref.isCopy());
+        Blob blob = ref.getBlob();
+        assertNotNull(blob);
+        assertEquals(PDFToolkitCache.getDocumentKey(docBlob), PDFToolkitCache.getDocumentKey(blob));
+
+        // A bare blob: only a copy in the cache
+        Blob b = new FileBlob(f);
+        b.setFilename("shouldReadThePdfBackInTheBackground.pdf");
+        ref = PDFBlobReference.of(b);
+        assertTrue(ref.isCopy());
+        assertNull(ref.getBlob());
+        ref.keepCopyIfNeeded(b);
+        blob = ref.getBlob();
+        assertNotNull(blob);
+        assertEquals(b.getLength(), blob.getLength());
+    }
+
+    @Test
+    public void shouldRenderTimedOutImageForItsVariant() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(TEST_PDF_PAH);
+        Blob b = new FileBlob(f);
+        b.setFilename("shouldRenderTimedOutImageForItsVariant.pdf");
+        String documentKey = PDFToolkitCache.getDocumentKey(b);
+        PDFPyramidLevel level = new PDFPyramidLevel(128, 128, 128);
+
+        PDFToImages pdfToImages = new PDFToImages(b);
+        pdfToImages.setSupersampling(true);
+
+        // The key of a non supersampled image: not replaced with a supersampled one
+        try {
+            pdfToImages.renderTimedOutImage(PDFToolkitCache.getPageKey(documentKey, 1, "128x128-128"), 1, level);
+            fail("The variant should not match");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        String key = PDFToolkitCache.getPageKey(documentKey, 1, "128x128-128-ss");
+        assertTrue(pdfToImages.renderTimedOutImage(key, 1, level));
+        assertNotNull(new PDFToolkitCache().getBlob(key));
+    }
 }
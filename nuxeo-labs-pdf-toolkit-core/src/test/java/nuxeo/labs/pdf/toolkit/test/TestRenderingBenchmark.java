@@ -0,0 +1,262 @@
+/*
+ * (C) Copyright 2025 Hyland (http://hyland.com/)  and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Thibaud Arguillere
+ */
+package nuxeo.labs.pdf.toolkit.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.ecm.automation.core.util.BlobList;
+import org.nuxeo.ecm.automation.test.AutomationFeature;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.impl.blob.FileBlob;
+import org.nuxeo.ecm.core.test.DefaultRepositoryInit;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.WithFrameworkProperty;
+
+import nuxeo.labs.pdf.toolkit.PDFPageExtractor;
+import nuxeo.labs.pdf.toolkit.PDFPageRemover;
+import nuxeo.labs.pdf.toolkit.PDFSource;
+import nuxeo.labs.pdf.toolkit.PDFToImages;
+import nuxeo.labs.pdf.toolkit.PDFTools;
+
+/**
+ * Wall-clock measurements, not run by default. Run them with:
+ *
+ * <pre>
+ * mvn test -Dtest=TestRenderingBenchmark -Dpdftoolkit.benchmark=true
+ * </pre>
+ *
+ * Results are logged (INFO), one line per measure.
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ AutomationFeature.class })
+@RepositoryConfig(init = DefaultRepositoryInit.class, cleanup = Granularity.METHOD)
+@Deploy("org.nuxeo.ecm.platform.picture.core")
+@Deploy("org.nuxeo.ecm.core.convert")
+@Deploy("nuxeo.labs.pdf.toolkit.nuxeo-labs-pdf-toolkit-core")
+public class TestRenderingBenchmark {
+
+    private static final Logger log = LogManager.getLogger(TestRenderingBenchmark.class);
+
+    public static final String TEST_PDF_PAH = "lorem_ipsum_10_pages.pdf";
+
+    public static final String BENCHMARK_PROPERTY = "pdftoolkit.benchmark";
+
+    protected static final int[] PAGE_COUNTS = { 10, 50, 200 };
+
+    protected static final int LARGE_PDF_SIZE_MB = 120;
+
+    @Before
+    public void onlyWhenRequested() {
+        assumeTrue("Benchmark not requested", Boolean.getBoolean(BENCHMARK_PROPERTY));
+    }
+
+    /*
+     * Duplicates the pages of the test PDF until it has pageCount pages.
+     */
+    protected Blob buildPdf(int pageCount) throws IOException {
+
+        File f = FileUtils.getResourceFileFromContext(TEST_PDF_PAH);
+        try (PDDocument source = Loader.loadPDF(f); PDDocument result = new PDDocument()) {
+            int sourcePageCount = source.getNumberOfPages();
+            for (int i = 0; i < pageCount; i++) {
+                result.importPage(source.getPage(i % sourcePageCount));
+            }
+            File resultFile = Framework.createTempFile("benchmark-" + pageCount, ".pdf");
+            result.save(resultFile);
+
+            return new FileBlob(resultFile);
+        }
+    }
+
+    @Test
+    // Requests are capped by this setting (1 by default) and by the number of processors
+    @WithFrameworkProperty(name = PDFToImages.PARALLELISM_PROPERTY, value = "1024")
+    public void benchmarkParallelThumbnails() throws Exception {
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        int[] parallelisms = { 1, 2, 4, cores };
+
+        for (int pageCount : PAGE_COUNTS) {
+            Blob pdf = buildPdf(pageCount);
+            long serialDuration = 0;
+            for (int parallelism : parallelisms) {
+                // A different file name for each run, so the TransientStore is not used.
+                pdf.setFilename("benchmark-" + pageCount + "-" + parallelism + ".pdf");
+
+                // Records the threads which actually rendered the pages
+                Set<String> threads = ConcurrentHashMap.newKeySet();
+                PDFToImages pdfToImages = new PDFToImages(pdf) {
+                    @Override
+                    protected <T> List<T> renderInParallel(PDFSource source, List<Integer> pageNumbers, int workers,
+                            PagesRenderer<T> pagesRenderer) throws IOException {
+                        return super.renderInParallel(source, pageNumbers, workers, (document, pages) -> {
+                            threads.add(Thread.currentThread().getName());
+                            return pagesRenderer.render(document, pages);
+                        });
+                    }
+                };
+                pdfToImages.setParallelism(parallelism);
+
+                long start = System.currentTimeMillis();
+                BlobList thumbnails = pdfToImages.createThumbnails();
+                long duration = System.currentTimeMillis() - start;
+
+                assertEquals(pageCount, thumbnails.size());
+                if (Math.min(parallelism, cores) > 1) {
+                    assertTrue("Rendered on " + threads.size() + " thread(s)", threads.size() > 1);
+                }
+                if (parallelism == 1) {
+                    serialDuration = duration;
+                }
+                log.info(String.format(
+                        "Thumbnails - pages: %d, cores: %d, parallelism: %d, threads: %d, duration: %d ms, speedup: %.2f",
+                        pageCount, cores, parallelism, Math.max(threads.size(), 1), duration,
+                        (double) serialDuration / Math.max(duration, 1)));
+            }
+        }
+    }
+
+    /*
+     * A PDF of at least sizeMB, each page holding a different noisy JPEG (which doesn't compress), so most of the size
+     * is in the streams, as in scanned archives.
+     */
+    protected Blob buildLargePdf(int sizeMB) throws IOException {
+
+        Random random = new Random(42);
+        BufferedImage noise = new BufferedImage(1200, 1600, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < noise.getHeight(); y++) {
+            for (int x = 0; x < noise.getWidth(); x++) {
+                noise.setRGB(x, y, random.nextInt(0xFFFFFF));
+            }
+        }
+
+        File resultFile = Framework.createTempFile("benchmark-large", ".pdf");
+        try (PDDocument document = new PDDocument(IOUtils.createTempFileOnlyStreamCache())) {
+            long size = 0;
+            while (size < sizeMB * 1024L * 1024L) {
+                PDImageXObject image = JPEGFactory.createFromImage(document, noise, 0.9f);
+                size += image.getCOSObject().getLength();
+                PDPage page = new PDPage(PDRectangle.LETTER);
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.drawImage(image, 0, 0, page.getMediaBox().getWidth(), page.getMediaBox().getHeight());
+                }
+                for (int i = 0; i < 1000; i++) {
+                    noise.setRGB(random.nextInt(noise.getWidth()), random.nextInt(noise.getHeight()),
+                            random.nextInt(0xFFFFFF));
+                }
+            }
+            document.save(resultFile);
+        }
+
+        return new FileBlob(resultFile);
+    }
+
+    /*
+     * Duration, bytes allocated by the current thread and peak heap of the call.
+     */
+    protected long[] measure(Callable<Blob> call) throws Exception {
+
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans()
+                                                            .stream()
+                                                            .filter(pool -> pool.getType() == MemoryType.HEAP)
+                                                            .collect(Collectors.toList());
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.currentTimeMillis();
+        Blob result = call.call();
+        long duration = System.currentTimeMillis() - start;
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        long peakHeap = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+
+        result.getFile().delete();
+        return new long[] { duration, allocated, peakHeap };
+    }
+
+    @Test
+    public void benchmarkRemovePages() throws Exception {
+
+        Blob pdf = buildLargePdf(LARGE_PDF_SIZE_MB);
+        int pageCount;
+        try (PDDocument document = Loader.loadPDF(pdf.getFile())) {
+            pageCount = document.getNumberOfPages();
+        }
+
+        long[] removal = measure(() -> new PDFPageRemover(pdf).removePages("1-3"));
+        long[] extraction = measure(() -> new PDFPageExtractor(pdf).extractPages("4-" + pageCount));
+        // What the removal used to do: load, clone through a byte array, remove, save
+        long[] cloneAndRemove = measure(() -> {
+            try (PDDocument document = Loader.loadPDF(pdf.getFile());
+                    PDDocument clone = PDFTools.cloneDocument(document)) {
+                for (int i = 0; i < 3; i++) {
+                    clone.removePage(0);
+                }
+                return PDFTools.saveToFileBlob(pdf, clone, "benchmark", "-clone");
+            }
+        });
+
+        String format = "Remove 3 pages - file: %d MB, pages: %d, %s: %d ms, allocated: %d MB, peak heap: %d MB";
+        long fileMB = pdf.getLength() / (1024 * 1024);
+        log.info(String.format(format, fileMB, pageCount, "in place", removal[0], removal[1] >> 20, removal[2] >> 20));
+        log.info(String.format(format, fileMB, pageCount, "extract the rest", extraction[0], extraction[1] >> 20,
+                extraction[2] >> 20));
+        log.info(String.format(format, fileMB, pageCount, "clone (before)", cloneAndRemove[0], cloneAndRemove[1] >> 20,
+                cloneAndRemove[2] >> 20));
+
+        // The clone allocated at least twice the size of the file
+        assertTrue(removal[1] < cloneAndRemove[1]);
+    }
+}
@@ -18,12 +18,52 @@
  */
 package nuxeo.labs.pdf.toolkit.test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.imageio.ImageIO;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.io.RandomAccess;
+import org.apache.pdfbox.io.RandomAccessStreamCache;
+import org.apache.pdfbox.io.RandomAccessStreamCache.StreamCacheCreateFunction;
+import org.apache.pdfbox.io.ScratchFile;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.rendering.PDFRenderer;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.nuxeo.common.utils.FileUtils;
@@ -43,8 +83,23 @@ import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
 
+import com.sun.net.httpserver.HttpServer;
+
 import jakarta.inject.Inject;
+import nuxeo.labs.pdf.toolkit.PDFBudgetedRenderer;
+import nuxeo.labs.pdf.toolkit.PDFColorMode;
+import nuxeo.labs.pdf.toolkit.PDFDocumentCache;
+import nuxeo.labs.pdf.toolkit.PDFMemoryMode;
+import nuxeo.labs.pdf.toolkit.PDFOutputOptimizer;
+import nuxeo.labs.pdf.toolkit.PDFPageExtractor;
+import nuxeo.labs.pdf.toolkit.PDFPageRemover;
+import nuxeo.labs.pdf.toolkit.PDFPyramidLevel;
+import nuxeo.labs.pdf.toolkit.PDFRangedSource;
+import nuxeo.labs.pdf.toolkit.PDFRenderTimeoutException;
+import nuxeo.labs.pdf.toolkit.PDFResourceCache;
+import nuxeo.labs.pdf.toolkit.PDFScannedPage;
 import nuxeo.labs.pdf.toolkit.PDFToImages;
+import nuxeo.labs.pdf.toolkit.PDFToolkitL1Cache;
 
 /**
  * Test some features. About everything is tested in TestOperations
@@ -77,6 +132,8 @@ public class TestTheToolkit {
         AbstractTransientStore storeAbstract = (AbstractTransientStore) store;
         Set<String> keys = storeAbstract.keySet();
         assertTrue(keys == null || keys.size() == 0);
+        // The in-heap cache may have been filled by other tests
+        PDFToolkitL1Cache.getInstance().clear();
 
         File f = FileUtils.getResourceFileFromContext(TEST_PDF_PAH);
         Blob b = new FileBlob(f);
@@ -84,14 +141,397 @@ public class TestTheToolkit {
         PDFToImages pdfThumbnails = new PDFToImages(b);
         BlobList thumbnails = pdfThumbnails.createThumbnails();
         
+        // One entry per page + the manifest
         keys = storeAbstract.keySet();
-        assertTrue(keys.size() == 1);
+        assertEquals(TEST_PDF_PAGE_COUNT + 1, keys.size());
         
+        long l1Hits = PDFToolkitL1Cache.getInstance().getStatistics().getLong("hits");
         pdfThumbnails = new PDFToImages(b);
         thumbnails = pdfThumbnails.createThumbnails();
+        assertEquals(TEST_PDF_PAGE_COUNT, thumbnails.size());
+        // Served by the in-heap cache
+        assertTrue(PDFToolkitL1Cache.getInstance().getStatistics().getLong("hits") > l1Hits);
         
         keys = storeAbstract.keySet();
-        assertTrue(keys.size() == 1);
+        assertEquals(TEST_PDF_PAGE_COUNT + 1, keys.size());
+
+        // Another size => other entries, pages are not mixed between sizes
+        pdfThumbnails = new PDFToImages(b);
+        pdfThumbnails.setPages(1, 3);
+        thumbnails = pdfThumbnails.createThumbnails(128);
+        assertEquals(3, thumbnails.size());
+        keys = storeAbstract.keySet();
+        assertEquals(TEST_PDF_PAGE_COUNT + 1 + 3, keys.size());
+
+        // Asking for more pages only renders the missing ones
+        pdfThumbnails = new PDFToImages(b);
+        pdfThumbnails.setPageRange("2-5");
+        thumbnails = pdfThumbnails.createThumbnails(128);
+        assertEquals(4, thumbnails.size());
+        assertEquals(TEST_PDF_PAGE_COUNT, pdfThumbnails.getTotalPageCount());
+        keys = storeAbstract.keySet();
+        assertEquals(TEST_PDF_PAGE_COUNT + 1 + 5, keys.size());
         
     }
+
+    @Test
+    public void shouldReuseParsedDocument() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(TEST_PDF_PAH);
+        Blob b = new FileBlob(f);
+        b.setFilename("shouldReuseParsedDocument.pdf");
+
+        PDFDocumentCache documentCache = PDFDocumentCache.getInstance();
+        long hits = documentCache.getStatistics().getLong("hits");
+
+        try (PDFDocumentCache.Lease lease = documentCache.acquire(b)) {
+            assertEquals(TEST_PDF_PAGE_COUNT, lease.getDocument().getNumberOfPages());
+        }
+        try (PDFDocumentCache.Lease lease = documentCache.acquire(b)) {
+            assertEquals(TEST_PDF_PAGE_COUNT, lease.getDocument().getNumberOfPages());
+        }
+
+        // Second call used the already parsed PDF
+        assertTrue(documentCache.getStatistics().getLong("hits") > hits);
+
+        // Another thread doesn't wait while the document is in use, it gets its own copy
+        long busyCopies = documentCache.getStatistics().getLong("busyCopies");
+        try (PDFDocumentCache.Lease lease = documentCache.acquire(b)) {
+            PDDocument other = CompletableFuture.supplyAsync(() -> {
+                try (PDFDocumentCache.Lease otherLease = documentCache.acquire(b)) {
+                    assertEquals(TEST_PDF_PAGE_COUNT, otherLease.getDocument().getNumberOfPages());
+                    return otherLease.getDocument();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).get(30, TimeUnit.SECONDS);
+            assertNotSame(lease.getDocument(), other);
+        }
+        assertEquals(busyCopies + 1, documentCache.getStatistics().getLong("busyCopies"));
+    }
+
+    @Test
+    public void shouldCreatePyramid() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(TEST_PDF_PAH);
+        Blob b = new FileBlob(f);
+        // No file name, no digest => not cached, nothing written in the TransientStore
+        b.setFilename(null);
+
+        PDFToImages pdfToImages = new PDFToImages(b);
+        List<BlobList> pyramid = pdfToImages.createPyramid(PDFPyramidLevel.parseList("128@512,256x256@512"));
+        assertEquals(2, pyramid.size());
+
+        int[] sizes = { 128, 256 };
+        for (int level = 0; level < sizes.length; level++) {
+            BlobList images = pyramid.get(level);
+            assertEquals(TEST_PDF_PAGE_COUNT, images.size());
+            for (Blob image : images) {
+                BufferedImage img = ImageIO.read(image.getStream());
+                // PDFBox rounds the dimensions down
+                int maxDimension = Math.max(img.getWidth(), img.getHeight());
+                assertTrue(maxDimension <= sizes[level] && maxDimension >= sizes[level] - 1);
+            }
+        }
+    }
+
+    @Test
+    public void shouldRenderInGrayAndBinary() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(TEST_PDF_PAH);
+        Blob b = new FileBlob(f);
+        // No file name, no digest => not cached
+        b.setFilename(null);
+
+        PDFToImages pdfToImages = new PDFToImages(b);
+        pdfToImages.setColorMode(PDFColorMode.GRAY);
+        pdfToImages.setPages(1, 1);
+        BlobList thumbnails = pdfToImages.createThumbnails(256);
+        assertEquals("image/jpeg", thumbnails.get(0).getMimeType());
+        BufferedImage img = ImageIO.read(thumbnails.get(0).getStream());
+        assertEquals(1, img.getRaster().getNumBands());
+
+        pdfToImages = new PDFToImages(b);
+        pdfToImages.setColorMode("binary");
+        pdfToImages.setPages(1, 1);
+        thumbnails = pdfToImages.createThumbnails(256);
+        assertEquals("image/png", thumbnails.get(0).getMimeType());
+        img = ImageIO.read(thumbnails.get(0).getStream());
+        assertEquals(1, img.getColorModel().getPixelSize());
+    }
+
+    @Test
+    public void shouldCacheParsedResources() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(TEST_PDF_PAH);
+        try (PDDocument document = PDFResourceCache.install(Loader.loadPDF(f))) {
+            assertTrue(document.getResourceCache() instanceof PDFResourceCache);
+            PDFResourceCache resourceCache = (PDFResourceCache) document.getResourceCache();
+
+            PDFRenderer renderer = new PDFRenderer(document);
+            renderer.renderImage(0, 0.5f);
+            // At least the fonts of the page
+            int size = resourceCache.size();
+            assertTrue(size > 0);
+
+            long hits = PDFResourceCache.getStatistics().getLong("hits");
+            renderer.renderImage(1, 0.5f);
+            // Same fonts on the next page
+            assertTrue(PDFResourceCache.getStatistics().getLong("hits") > hits);
+        }
+    }
+
+    @Test
+    public void shouldReturnPlaceholdersWhenOverBudget() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(TEST_PDF_PAH);
+
+        try (PDDocument document = Loader.loadPDF(f)) {
+            PDFBudgetedRenderer renderer = new PDFBudgetedRenderer(document);
+            renderer.setDeadline(0);
+            try {
+                renderer.renderImage(0, 0.5f);
+                fail("Rendering should have been stopped");
+            } catch (PDFRenderTimeoutException e) {
+                // Expected
+            }
+        }
+
+        Blob b = new FileBlob(f);
+        // No file name, no digest => not cached, no background render
+        b.setFilename(null);
+
+        PDFToImages pdfToImages = new PDFToImages(b) {
+            @Override
+            protected long getPageDeadline() {
+                return 0;
+            }
+        };
+        pdfToImages.setPages(1, 2);
+        BlobList thumbnails = pdfToImages.createThumbnails(256);
+        assertEquals(2, thumbnails.size());
+        assertEquals(Set.of(1, 2), pdfToImages.getTimedOutPages());
+        for (Blob thumbnail : thumbnails) {
+            BufferedImage img = ImageIO.read(thumbnail.getStream());
+            assertTrue(Math.max(img.getWidth(), img.getHeight()) <= 256);
+        }
+    }
+
+    @Test
+    public void shouldBuildScannedPageImagesFromTheJpeg() throws Exception {
+
+        File f = File.createTempFile("scanned-", ".pdf");
+        f.deleteOnExit();
+        try (PDDocument document = new PDDocument()) {
+            BufferedImage scan = new BufferedImage(1275, 1650, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = scan.createGraphics();
+            g2d.setColor(Color.WHITE);
+            g2d.fillRect(0, 0, scan.getWidth(), scan.getHeight());
+            g2d.setColor(Color.BLACK);
+            g2d.fillRect(100, 100, 800, 50);
+            g2d.dispose();
+
+            PDPage page = new PDPage(PDRectangle.LETTER);
+            document.addPage(page);
+            PDImageXObject image = JPEGFactory.createFromImage(document, scan);
+            try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                content.drawImage(image, 0, 0, page.getMediaBox().getWidth(), page.getMediaBox().getHeight());
+            }
+            assertNotNull(PDFScannedPage.detect(page));
+            document.save(f);
+        }
+
+        Blob b = new FileBlob(f);
+        // No file name, no digest => not cached
+        b.setFilename(null);
+
+        PDFToImages pdfToImages = new PDFToImages(b);
+        BlobList thumbnails = pdfToImages.createThumbnails(256);
+        assertEquals(1, thumbnails.size());
+        BufferedImage img = ImageIO.read(thumbnails.get(0).getStream());
+        assertTrue(img.getHeight() <= 256 && img.getHeight() >= 255);
+
+        // A page with text is rendered
+        try (PDDocument document = Loader.loadPDF(FileUtils.getResourceFileFromContext(TEST_PDF_PAH))) {
+            assertNull(PDFScannedPage.detect(document.getPage(0)));
+        }
+    }
+
+    @Test
+    public void shouldReadThePdfByRanges() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(TEST_PDF_PAH);
+        byte[] bytes = Files.readAllBytes(f.toPath());
+        AtomicInteger rangeRequests = new AtomicInteger();
+
+        // Stands for the direct download URL of a remote blob provider
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/pdf", exchange -> {
+            String[] range = exchange.getRequestHeaders().getFirst("Range").replace("bytes=", "").split("-");
+            int start = Integer.parseInt(range[0]);
+            int end = Math.min(Integer.parseInt(range[1]), bytes.length - 1);
+            rangeRequests.incrementAndGet();
+            exchange.getResponseHeaders()
+                    .add("Content-Range", "bytes " + start + "-" + end + "/" + bytes.length);
+            exchange.sendResponseHeaders(206, end - start + 1);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes, start, end - start + 1);
+            }
+        });
+        server.start();
+
+        try {
+            URI uri = new URI("http://localhost:" + server.getAddress().getPort() + "/pdf");
+            Blob b = new FileBlob(f);
+            try (PDFRangedSource source = new PDFRangedSource(b, uri, 1024, 128) {
+            }; PDDocument document = source.load(); PDDocument expected = Loader.loadPDF(f)) {
+
+                assertEquals(expected.getNumberOfPages(), document.getNumberOfPages());
+                BufferedImage img = new PDFRenderer(document).renderImage(3);
+                assertNotNull(img);
+                assertTrue(rangeRequests.get() > 0);
+
+                // A second reader of the same source shares the blocks already fetched
+                int requests = rangeRequests.get();
+                try (PDDocument other = source.load()) {
+                    assertEquals(expected.getNumberOfPages(), other.getNumberOfPages());
+                }
+                assertTrue(rangeRequests.get() - requests < requests);
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void shouldExtractPagesWithScratchFilesOnly() throws Exception {
+
+        File f = FileUtils.getResourceFileFromContext(TEST_PDF_PAH);
+        Blob b = new FileBlob(f);
+
+        PDFPageExtractor extractor = new PDFPageExtractor(b);
+        extractor.setMemoryMode(PDFMemoryMode.FILE);
+        Blob result = extractor.extractPages("2-4,7");
+
+        try (PDDocument extracted = Loader.loadPDF(result.getFile())) {
+            assertEquals(4, extracted.getNumberOfPages());
+        }
+
+        PDFPageRemover remover = new PDFPageRemover(b);
+        remover.setMemoryMode(PDFMemoryMode.MIXED);
+        result = remover.removePages("1-3");
+
+        try (PDDocument removed = Loader.loadPDF(result.getFile())) {
+            assertEquals(7, removed.getNumberOfPages());
+        }
+    }
+
+    @Test
+    public void shouldKeepStreamsWhereTheMemoryModeSays() throws Exception {
+
+        byte[] bytes = new byte[64 * 1024];
+
+        // FILE: in a scratch file, even for a few bytes
+        assertTrue(writesScratchFile(PDFMemoryMode.FILE.getStreamCache(0), new byte[10]));
+
+        // MIXED: on the heap up to the ceiling, then in a scratch file
+        assertFalse(writesScratchFile(PDFMemoryMode.MIXED.getStreamCache(1024 * 1024), bytes));
+        assertTrue(writesScratchFile(PDFMemoryMode.MIXED.getStreamCache(8 * 1024), bytes));
+
+        // MEMORY: never
+        RandomAccessStreamCache cache = PDFMemoryMode.MEMORY.getStreamCache(0).create();
+        assertFalse(cache instanceof ScratchFile);
+        cache.close();
+    }
+
+    // The scratch files are deleted when the cache is closed, so look while it is open
+    protected boolean writesScratchFile(StreamCacheCreateFunction streamCache, byte[] bytes) throws IOException {
+
+        File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        Set<String> before = Set.of(listScratchFiles(tmpDir));
+        try (RandomAccessStreamCache cache = streamCache.create()) {
+            assertTrue(cache instanceof ScratchFile);
+            try (RandomAccess buffer = cache.createBuffer()) {
+                buffer.write(bytes);
+                for (String name : listScratchFiles(tmpDir)) {
+                    if (!before.contains(name)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+    }
+
+    protected static String[] listScratchFiles(File dir) {
+        String[] names = dir.list((d, name) -> name.startsWith("PDFBox") && name.endsWith(".tmp"));
+        return names == null ? new String[0] : names;
+    }
+
+    @Test
+    public void shouldPruneAndMergeResourcesOfTheOutput() throws Exception {
+
+        File f = Framework.createTempFile("test-resources", ".pdf");
+        BufferedImage small = new BufferedImage(200, 200, BufferedImage.TYPE_INT_RGB);
+        BufferedImage big = new BufferedImage(1000, 1000, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < big.getHeight(); y++) {
+            for (int x = 0; x < big.getWidth(); x++) {
+                big.setRGB(x, y, (x * 7919 + y * 104729) & 0xFFFFFF);
+            }
+        }
+        try (PDDocument document = new PDDocument()) {
+            // Page 1 shows the same image embedded twice, page 2 shows a big one, both pages share their resources
+            PDPage page1 = new PDPage(PDRectangle.LETTER);
+            document.addPage(page1);
+            try (PDPageContentStream content = new PDPageContentStream(document, page1)) {
+                content.drawImage(JPEGFactory.createFromImage(document, small), 0, 0);
+                content.drawImage(JPEGFactory.createFromImage(document, small), 300, 300);
+            }
+            PDPage page2 = new PDPage(PDRectangle.LETTER);
+            page2.setResources(page1.getResources());
+            document.addPage(page2);
+            try (PDPageContentStream content = new PDPageContentStream(document, page2)) {
+                content.drawImage(JPEGFactory.createFromImage(document, big), 0, 0);
+            }
+            assertEquals(3, page1.getResources().getCOSObject().getCOSDictionary(COSName.XOBJECT).size());
+            document.save(f);
+        }
+
+        Blob result = new PDFPageExtractor(new FileBlob(f)).extractPages("1");
+        assertTrue(result.getLength() < f.length() / 2);
+
+        try (PDDocument extracted = Loader.loadPDF(result.getFile())) {
+            COSDictionary xobjects = extracted.getPage(0)
+                                              .getResources()
+                                              .getCOSObject()
+                                              .getCOSDictionary(COSName.XOBJECT);
+            assertEquals(2, xobjects.size());
+            List<COSName> names = List.copyOf(xobjects.keySet());
+            assertEquals(((COSObject) xobjects.getItem(names.get(0))).getKey(),
+                    ((COSObject) xobjects.getItem(names.get(1))).getKey());
+        }
+
+        // A legacy form XObject (no /Resources) uses the fonts of the page: they are kept
+        try (PDDocument document = new PDDocument()) {
+            PDPage page = new PDPage(PDRectangle.LETTER);
+            document.addPage(page);
+            PDResources resources = new PDResources();
+            page.setResources(resources);
+            COSName font = resources.add(new PDType1Font(Standard14Fonts.FontName.HELVETICA));
+            resources.add(new PDType1Font(Standard14Fonts.FontName.COURIER));
+            PDFormXObject form = new PDFormXObject(document);
+            form.setBBox(PDRectangle.LETTER);
+            try (OutputStream out = form.getContentStream().createOutputStream()) {
+                out.write(("BT /" + font.getName() + " 12 Tf (x) Tj ET").getBytes(StandardCharsets.US_ASCII));
+            }
+            try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                content.drawForm(form);
+            }
+
+            PDFOutputOptimizer optimizer = new PDFOutputOptimizer(document);
+            optimizer.optimize();
+            assertEquals(0, optimizer.getPrunedCount());
+            assertEquals(2, page.getResources().getCOSObject().getCOSDictionary(COSName.FONT).size());
+        }
+    }
 }